@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+///////////////////////////////
+//////    JMH BENCHMARKS
+////// RUN ALL : './gradlew :benchmark:jmh'
+////// RUN SOME: './gradlew :benchmark:jmh -Pjmh.includes=Decompressor'
+////// VERIFY  : './gradlew :benchmark:verifyFixtures'
+///////////////////////////////
+//
+// The fixture cabinets in 'src/jmh/resources/fixtures' hold the same 512K of text, x86 code and tables per compression type and
+// window size (NONE, MSZIP, LZX:15 to LZX:21, QUANTUM:10, QUANTUM:15 and QUANTUM:21), plus 'directory.cab' with 2000 tiny files
+// for the directory parsing.
+// Results are written to 'build/results/jmh/results.json'
+
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+repositories {
+    mavenCentral()
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    jmh(project(":"))
+}
+
+jmh {
+    jmhVersion.set("1.37")
+
+    // allocation rate per benchmark
+    profilers.add("gc")
+
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+
+    val includeFilter = project.findProperty("jmh.includes")
+    if (includeFilter != null) {
+        includes.set(listOf(includeFilter.toString()))
+    }
+}
+
+// decodes every fixture, and checks it against the stored one
+tasks.register<JavaExec>("verifyFixtures") {
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("dorkbox.cabParser.benchmark.FixtureCheck")
+}
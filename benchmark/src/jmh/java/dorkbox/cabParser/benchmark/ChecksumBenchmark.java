@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dorkbox.cabParser.Checksum;
+
+/**
+ * CFDATA checksum over one block, from an array, a heap buffer and direct memory (like a memory mapped cabinet).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChecksumBenchmark {
+    /** a full block, a short last block, and a length with a partial word at the end */
+    @Param({"32768", "4096", "1027"})
+    public int length;
+
+    private byte[] bytes;
+    private ByteBuffer heap;
+    private ByteBuffer direct;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        this.bytes = new byte[this.length];
+        new Random(42).nextBytes(this.bytes);
+
+        this.heap = ByteBuffer.wrap(this.bytes).order(ByteOrder.LITTLE_ENDIAN);
+        this.direct = ByteBuffer.allocateDirect(this.length).order(ByteOrder.LITTLE_ENDIAN);
+        this.direct.put(this.bytes);
+        this.direct.clear();
+    }
+
+    @Benchmark
+    public int array(DecodedMegabytes checked) {
+        checked.add(this.length);
+        return Checksum.calculate(this.bytes, this.length, 0x12345678);
+    }
+
+    @Benchmark
+    public int heapBuffer(DecodedMegabytes checked) {
+        checked.add(this.length);
+        return Checksum.calculate(this.heap, 0, this.length, 0x12345678);
+    }
+
+    @Benchmark
+    public int directBuffer(DecodedMegabytes checked) {
+        checked.add(this.length);
+        return Checksum.calculate(this.direct, 0, this.length, 0x12345678);
+    }
+}
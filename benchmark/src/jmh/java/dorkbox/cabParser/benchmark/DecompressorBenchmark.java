@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dorkbox.cabParser.CabException;
+import dorkbox.cabParser.decompress.Decompressor;
+
+/**
+ * Decoders on their own, with the CFDATA blocks already in memory and their checksums not verified.
+ */
+@State(Scope.Thread)
+public class DecompressorBenchmark {
+    @Param({"none", "mszip", "lzx15", "lzx16", "lzx17", "lzx18", "lzx19", "lzx20", "lzx21", "quantum10", "quantum15", "quantum21"})
+    public String fixture;
+
+    private Fixtures.Folder folder;
+    private Decompressor decompressor;
+    private final byte[] output = new byte[33028];
+
+    /** next block for {@link #block()} */
+    private int next;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        this.folder = Fixtures.folder(this.fixture);
+        this.decompressor = this.folder.newDecompressor();
+        Fixtures.verify(this.folder, this.decompressor);
+    }
+
+    /**
+     * Decodes the whole folder. The decoded megabytes are reported as MB/s.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void folder(DecodedMegabytes decoded, Blackhole blackhole) throws CabException {
+        Fixtures.Folder folder = this.folder;
+
+        this.decompressor.reset(folder.windowBits);
+        for (int i = 0; i < folder.blocks.length; i++) {
+            blackhole.consume(this.decompressor.decompress(folder.blocks[i], this.output, folder.compressed[i], folder.uncompressed[i]));
+        }
+        decoded.add(folder.uncompressedSize);
+    }
+
+    /**
+     * Decodes one block per call, for the latency of every block. The folder starts over once all of its blocks were decoded.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ByteBuffer block() throws CabException {
+        Fixtures.Folder folder = this.folder;
+
+        if (this.next == folder.blocks.length) {
+            this.next = 0;
+        }
+        if (this.next == 0) {
+            this.decompressor.reset(folder.windowBits);
+        }
+
+        int i = this.next++;
+        return this.decompressor.decompress(folder.blocks[i], this.output, folder.compressed[i], folder.uncompressed[i]);
+    }
+}
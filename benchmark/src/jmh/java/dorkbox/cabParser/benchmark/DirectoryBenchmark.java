@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dorkbox.cabParser.CabParser;
+import dorkbox.cabParser.structure.CabDirectory;
+import dorkbox.cabParser.structure.CabFileEntry;
+
+/**
+ * Parsing CFHEADER, CFFOLDER and CFFILE of a cabinet with 2000 files, without extracting anything.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DirectoryBenchmark {
+    /**
+     * Counts parsed entries, reported as entries/s.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Entries {
+        public long entries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.entries = 0;
+        }
+    }
+
+    private byte[] cab;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        this.cab = Fixtures.load("directory");
+    }
+
+    @Benchmark
+    public CabFileEntry[] parse(Entries entries) throws Exception {
+        CabParser parser = Fixtures.parse(this.cab);
+        entries.entries += parser.files.length;
+        return parser.files;
+    }
+
+    /**
+     * The same directory into a {@link CabDirectory}, without any entry objects.
+     */
+    @Benchmark
+    public CabDirectory compact(Entries entries) throws Exception {
+        CabDirectory directory = CabDirectory.read(new ByteArrayInputStream(this.cab));
+        entries.entries += directory.getFileCount();
+        return directory;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dorkbox.cabParser.CabBufferSaver;
+import dorkbox.cabParser.CabParser;
+import dorkbox.cabParser.decompress.ChecksumPolicy;
+import dorkbox.cabParser.structure.CabFileEntry;
+
+/**
+ * Every stage together: reading the CFDATA records from a stream, verifying their checksums and decoding them, into a saver
+ * that only looks at the decoded data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExtractBenchmark {
+    @Param({"none", "mszip", "lzx15", "lzx21", "quantum21"})
+    public String fixture;
+
+    @Param({"ALWAYS", "NEVER"})
+    public ChecksumPolicy checksums;
+
+    private byte[] cab;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        this.cab = Fixtures.load(this.fixture);
+    }
+
+    @Benchmark
+    public void extract(final DecodedMegabytes decoded, final Blackhole blackhole) throws Exception {
+        CabParser parser = new CabParser(new ByteArrayInputStream(this.cab), (File) null);
+        parser.setChecksumPolicy(this.checksums);
+
+        parser.extractBuffers(new CabBufferSaver() {
+            @Override
+            public boolean openEntry(CabFileEntry entry) {
+                return true;
+            }
+
+            @Override
+            public void write(CabFileEntry entry, ByteBuffer data) {
+                decoded.add(data.remaining());
+                blackhole.consume(data);
+            }
+
+            @Override
+            public void closeEntry(CabFileEntry entry) {
+            }
+        });
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.benchmark;
+
+import dorkbox.cabParser.decompress.Decompressor;
+import dorkbox.cabParser.decompress.lzx.DecompressLzx;
+import dorkbox.cabParser.decompress.zip.DecompressInflater;
+import dorkbox.cabParser.decompress.zip.DecompressZip;
+
+/**
+ * Decodes every fixture with every decoder the benchmarks use, and checks the result against the stored fixture. Run it with
+ * './gradlew :benchmark:verifyFixtures'.
+ */
+public final class FixtureCheck {
+    private static final String[] FIXTURES = {"none", "mszip", "lzx15", "lzx16", "lzx17", "lzx18", "lzx19", "lzx20", "lzx21",
+                                              "quantum10", "quantum15", "quantum21"};
+
+    public static void main(String[] args) throws Exception {
+        for (String name : FIXTURES) {
+            Fixtures.Folder folder = Fixtures.folder(name);
+            check(name, folder, folder.newDecompressor());
+
+            if (name.startsWith("lzx")) {
+                check(name + " (direct window)", folder, new DecompressLzx(true));
+            }
+            else if (name.equals("mszip")) {
+                check(name + " (java)", folder, new DecompressZip());
+                if (DecompressInflater.isAvailable()) {
+                    DecompressInflater inflater = new DecompressInflater();
+                    check(name + " (inflater)", folder, inflater);
+                    inflater.end();
+                }
+            }
+        }
+    }
+
+    private static void check(String name, Fixtures.Folder folder, Decompressor decompressor) throws Exception {
+        decompressor.init(folder.windowBits);
+        Fixtures.verify(folder, decompressor);
+        System.out.println("OK " + name);
+    }
+
+    private FixtureCheck() {
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+import dorkbox.cabParser.CabException;
+import dorkbox.cabParser.CabParser;
+import dorkbox.cabParser.decompress.Decompressor;
+import dorkbox.cabParser.decompress.lzx.DecompressLzx;
+import dorkbox.cabParser.decompress.none.DecompressNone;
+import dorkbox.cabParser.decompress.quantum.DecompressQuantum;
+import dorkbox.cabParser.decompress.zip.DecompressInflater;
+import dorkbox.cabParser.decompress.zip.DecompressZip;
+import dorkbox.cabParser.structure.CabConstants;
+import dorkbox.cabParser.structure.CabFolderEntry;
+import dorkbox.cabParser.structure.CfDataRecord;
+
+/**
+ * Loads the fixture cabinets bundled with the benchmarks.
+ */
+final class Fixtures {
+    /**
+     * The CFDATA blocks of the first folder of a fixture, already read into memory so decoders can be measured on their own.
+     */
+    static final class Folder {
+        final int compressionMethod;
+        final int windowBits;
+
+        final ByteBuffer[] blocks;
+        final int[] compressed;
+        final int[] uncompressed;
+
+        long compressedSize;
+        long uncompressedSize;
+
+        Folder(int compressionMethod, int count) {
+            this.compressionMethod = compressionMethod;
+            this.windowBits = (compressionMethod & 0x1F00) >>> 8;
+
+            this.blocks = new ByteBuffer[count];
+            this.compressed = new int[count];
+            this.uncompressed = new int[count];
+        }
+
+        Decompressor newDecompressor() throws CabException {
+            Decompressor decompressor;
+            switch (this.compressionMethod & 0xF) {
+                case CabConstants.COMPRESSION_TYPE_NONE :
+                    decompressor = new DecompressNone();
+                    break;
+                case CabConstants.COMPRESSION_TYPE_MSZIP :
+                    // same choice as DecompressorPool, see MszipBenchmark for both
+                    if (DecompressInflater.isAvailable()) {
+                        decompressor = new DecompressInflater();
+                    }
+                    else {
+                        decompressor = new DecompressZip();
+                    }
+                    break;
+                case CabConstants.COMPRESSION_TYPE_LZX :
+                    decompressor = new DecompressLzx();
+                    break;
+                case CabConstants.COMPRESSION_TYPE_QUANTUM :
+                    decompressor = new DecompressQuantum();
+                    break;
+                default :
+                    throw new CabException("Unknown compression type " + (this.compressionMethod & 0xF));
+            }
+
+            decompressor.init(this.windowBits);
+            return decompressor;
+        }
+    }
+
+    static byte[] load(String name) throws IOException {
+        InputStream inputStream = Fixtures.class.getResourceAsStream("/fixtures/" + name + ".cab");
+        if (inputStream == null) {
+            throw new IOException("Missing fixture " + name);
+        }
+
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Decodes the whole folder once, and compares it with the content of the stored (NONE) fixture, which all fixtures share,
+     * so a benchmark never measures a decoder that gets it wrong.
+     *
+     * @throws IllegalStateException if the decoded data is not the same
+     */
+    static void verify(Folder folder, Decompressor decompressor) throws CabException, IOException {
+        Folder stored = folder("none");
+        CRC32 expected = new CRC32();
+        for (int i = 0; i < stored.blocks.length; i++) {
+            expected.update(stored.blocks[i].array(), 0, stored.compressed[i]);
+        }
+
+        CRC32 decoded = new CRC32();
+        byte[] output = new byte[33028];
+        decompressor.reset(folder.windowBits);
+        for (int i = 0; i < folder.blocks.length; i++) {
+            ByteBuffer view = decompressor.decompress(folder.blocks[i], output, folder.compressed[i], folder.uncompressed[i]);
+            if (view == null) {
+                decoded.update(output, 0, folder.uncompressed[i]);
+            }
+            else if (view.remaining() != folder.uncompressed[i]) {
+                throw new IllegalStateException("Block " + i + " decoded to " + view.remaining() + " bytes instead of " +
+                                                folder.uncompressed[i]);
+            }
+            else {
+                decoded.update(view.duplicate());
+            }
+        }
+
+        if (folder.uncompressedSize != stored.compressedSize || decoded.getValue() != expected.getValue()) {
+            throw new IllegalStateException(decompressor.getClass().getSimpleName() + " decoded the fixture wrong");
+        }
+    }
+
+    static CabParser parse(byte[] cab) throws CabException, IOException {
+        return new CabParser(new ByteArrayInputStream(cab), (File) null);
+    }
+
+    static Folder folder(String name) throws CabException, IOException {
+        byte[] cab = load(name);
+        CabParser parser = parse(cab);
+        CabFolderEntry entry = parser.folders[0];
+
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(cab);
+        inputStream.skip(entry.getCoffCabStart());
+
+        Folder folder = new Folder(entry.getCompressionMethod(), entry.getCCFData());
+        CfDataRecord record = new CfDataRecord(parser.header.getCbCFData());
+
+        for (int i = 0; i < folder.blocks.length; i++) {
+            // same size as the read buffer of CabDecompressor, decoders read a little past the data
+            byte[] data = new byte[CabConstants.CAB_BLOCK_SIZE + 8192];
+            record.read(inputStream, data);
+
+            folder.blocks[i] = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            folder.compressed[i] = record.getCbData();
+            folder.uncompressed[i] = record.getCbUncomp();
+
+            folder.compressedSize += record.getCbData();
+            folder.uncompressedSize += record.getCbUncomp();
+        }
+
+        return folder;
+    }
+
+    private Fixtures() {
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import dorkbox.cabParser.CabException;
+import dorkbox.cabParser.decompress.Decompressor;
+import dorkbox.cabParser.decompress.zip.DecompressInflater;
+import dorkbox.cabParser.decompress.zip.DecompressZip;
+
+/**
+ * The MSZIP decoders against each other: the JDK's inflater, and the pure Java fallback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MszipBenchmark {
+    @Param({"inflater", "java"})
+    public String decoder;
+
+    private Fixtures.Folder folder;
+    private Decompressor decompressor;
+    private final byte[] output = new byte[33028];
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        this.folder = Fixtures.folder("mszip");
+
+        if (this.decoder.equals("inflater")) {
+            this.decompressor = new DecompressInflater();
+        }
+        else {
+            this.decompressor = new DecompressZip();
+        }
+        this.decompressor.init(this.folder.windowBits);
+        Fixtures.verify(this.folder, this.decompressor);
+    }
+
+    @TearDown(Level.Trial)
+    public void end() {
+        if (this.decompressor instanceof DecompressInflater) {
+            ((DecompressInflater) this.decompressor).end();
+        }
+    }
+
+    @Benchmark
+    public void folder(DecodedMegabytes decoded, Blackhole blackhole) throws CabException {
+        Fixtures.Folder folder = this.folder;
+
+        this.decompressor.reset(folder.windowBits);
+        for (int i = 0; i < folder.blocks.length; i++) {
+            blackhole.consume(this.decompressor.decompress(folder.blocks[i], this.output, folder.compressed[i], folder.uncompressed[i]));
+        }
+        decoded.add(folder.uncompressedSize);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import dorkbox.cabParser.decompress.lzx.DecompressLzx;
+
+/**
+ * Intel E8 translation of one LZX frame. Like the decoder, every frame is first copied out of the (untranslated) window.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TranslateBenchmark {
+    private static final int FRAME = 32768;
+
+    /** calls per thousand bytes: none (text or tables), sparse, and call-heavy code */
+    @Param({"0", "5", "20"})
+    public int calls;
+
+    private byte[] window;
+    private byte[] frame;
+    private ByteBuffer view;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void fill() {
+        Random random = new Random(42);
+        this.window = new byte[FRAME];
+
+        for (int i = 0; i < FRAME; i++) {
+            int b = random.nextInt(256);
+            this.window[i] = (byte) (b == 0xE8 ? 0x90 : b);
+        }
+        for (int i = 0; i < FRAME * this.calls / 1000; i++) {
+            this.window[random.nextInt(FRAME - 5)] = (byte) 0xE8;
+        }
+
+        this.frame = new byte[FRAME];
+        this.view = ByteBuffer.wrap(this.frame).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Benchmark
+    public byte translate(DecodedMegabytes translated) {
+        System.arraycopy(this.window, 0, this.frame, 0, FRAME);
+        DecompressLzx.translate(this.view, FRAME, this.cursor, 12000000);
+
+        this.cursor = (this.cursor + FRAME) & 0x3FFFFF;
+        translated.add(FRAME);
+        return this.frame[FRAME - 1];
+    }
+}
@@ -14,3 +14,6 @@
  * limitations under the License.
  */
 rootProject.name = "CabParser"
+
+// JMH benchmarks, run with './gradlew :benchmark:jmh'
+include("benchmark")
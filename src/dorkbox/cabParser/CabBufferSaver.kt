@@ -0,0 +1,42 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser
+
+import dorkbox.cabParser.structure.CabFileEntry
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Receives decoded files as read-only [ByteBuffer] views, taken straight from where the decompressor decoded them (instead of
+ * being copied into an [java.io.OutputStream] first). Useful to hash files, or to write them to a channel or a socket.
+ */
+interface CabBufferSaver {
+    /**
+     * @return `false` to skip this entry
+     */
+    @Throws(IOException::class)
+    fun openEntry(entry: CabFileEntry): Boolean
+
+    /**
+     * The next decoded part of [entry], from the position to the limit of [data]. The view is only valid until this returns,
+     * so it has to be consumed (or copied) right away.
+     */
+    @Throws(IOException::class)
+    fun write(entry: CabFileEntry, data: ByteBuffer)
+
+    @Throws(IOException::class)
+    fun closeEntry(entry: CabFileEntry)
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser
+
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Buffered [OutputStream] over a [FileChannel], so a file is written while it is being decoded instead of being collected in
+ * memory first. Writes of at least a whole buffer go straight to the channel.
+ */
+class CabChannelOutputStream(private val channel: FileChannel) : OutputStream() {
+    companion object {
+        private const val BUFFER_SIZE = 65536
+    }
+
+    private val buffer = ByteBuffer.allocate(BUFFER_SIZE)
+
+    @Throws(IOException::class)
+    override fun write(b: Int) {
+        if (!buffer.hasRemaining()) {
+            flushBuffer()
+        }
+        buffer.put(b.toByte())
+    }
+
+    @Throws(IOException::class)
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        if (len >= BUFFER_SIZE) {
+            flushBuffer()
+            write(ByteBuffer.wrap(b, off, len))
+            return
+        }
+
+        if (len > buffer.remaining()) {
+            flushBuffer()
+        }
+        buffer.put(b, off, len)
+    }
+
+    /**
+     * Writes everything from the position to the limit of [data], without copying it when it is large enough.
+     */
+    @Throws(IOException::class)
+    fun write(data: ByteBuffer) {
+        if (data.remaining() < buffer.remaining()) {
+            buffer.put(data)
+            return
+        }
+
+        flushBuffer()
+        while (data.hasRemaining()) {
+            channel.write(data)
+        }
+    }
+
+    /**
+     * Appends [count] bytes of [source] starting at [position], with [CabSource.transferTo].
+     *
+     * @return `false` if the source cannot transfer, and nothing was written
+     */
+    @Throws(IOException::class)
+    fun transferFrom(source: CabSource, position: Long, count: Long): Boolean {
+        flushBuffer()
+        return source.transferTo(position, count, channel)
+    }
+
+    @Throws(IOException::class)
+    private fun flushBuffer() {
+        buffer.flip()
+        while (buffer.hasRemaining()) {
+            channel.write(buffer)
+        }
+        buffer.clear()
+    }
+
+    @Throws(IOException::class)
+    override fun flush() {
+        flushBuffer()
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        if (channel.isOpen) {
+            try {
+                flushBuffer()
+            }
+            finally {
+                channel.close()
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.SeekableByteChannel
+import java.nio.channels.WritableByteChannel
+
+/**
+ * Buffered random-access source over a channel.
+ *
+ * [FileChannel]s are read with positional reads, so the channel position is never touched.
+ */
+internal class CabChannelSource(private val channel: SeekableByteChannel, private val ownsChannel: Boolean = true) : CabSource() {
+    companion object {
+        private const val BUFFER_SIZE = 16384
+    }
+
+    private val buffer = ByteBuffer.allocate(BUFFER_SIZE)
+
+    /** cabinet offset of buffer[0] */
+    private var bufferStart = 0L
+
+    init {
+        buffer.limit(0)
+    }
+
+    override val currentPosition: Long
+        get() = bufferStart + buffer.position()
+
+    override val isSeekable: Boolean
+        get() = true
+
+    @Throws(IOException::class)
+    override fun seek(location: Long) {
+        if (location < 0) {
+            throw IOException("Cannot seek to a negative position")
+        }
+
+        val offset = location - bufferStart
+        if (offset >= 0 && offset <= buffer.limit()) {
+            buffer.position(offset.toInt())
+        }
+        else {
+            bufferStart = location
+            buffer.limit(0)
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun readAt(target: ByteBuffer, position: Long): Int {
+        if (channel is FileChannel) {
+            return channel.read(target, position)
+        }
+
+        channel.position(position)
+        return channel.read(target)
+    }
+
+    @Throws(IOException::class)
+    private fun fill(): Boolean {
+        bufferStart = currentPosition
+        buffer.clear()
+
+        val read = readAt(buffer, bufferStart)
+        buffer.flip()
+        return read > 0
+    }
+
+    @Throws(IOException::class)
+    override fun read(): Int {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1
+        }
+        return buffer.get().toInt() and 0xFF
+    }
+
+    @Throws(IOException::class)
+    override fun read(bytes: ByteArray, offset: Int, length: Int): Int {
+        if (length == 0) {
+            return 0
+        }
+
+        if (!buffer.hasRemaining()) {
+            if (length >= BUFFER_SIZE) {
+                // large reads go straight into the caller's array
+                val position = currentPosition
+                val read = readAt(ByteBuffer.wrap(bytes, offset, length), position)
+                if (read > 0) {
+                    bufferStart = position + read
+                    buffer.limit(0)
+                }
+                return read
+            }
+
+            if (!fill()) {
+                return -1
+            }
+        }
+
+        val count = Math.min(length, buffer.remaining())
+        buffer.get(bytes, offset, count)
+        return count
+    }
+
+    @Throws(IOException::class)
+    override fun skip(ammount: Long): Long {
+        if (ammount <= 0) {
+            return 0
+        }
+
+        val position = currentPosition
+        val skipped = Math.min(ammount, Math.max(0L, channel.size() - position))
+        seek(position + skipped)
+        return skipped
+    }
+
+    @Throws(IOException::class)
+    override fun available(): Int {
+        return Math.min(Int.MAX_VALUE.toLong(), Math.max(0L, channel.size() - currentPosition)).toInt()
+    }
+
+    /**
+     * Only [FileChannel]s can transfer.
+     */
+    @Throws(IOException::class)
+    override fun transferTo(position: Long, count: Long, target: WritableByteChannel): Boolean {
+        if (channel !is FileChannel) {
+            return false
+        }
+        transfer(channel, position, count, target)
+        return true
+    }
+
+    /**
+     * Only [FileChannel]s can be shared, because positional reads do not move the channel position.
+     */
+    @Throws(IOException::class)
+    override fun duplicate(): CabSource? {
+        if (channel !is FileChannel) {
+            return null
+        }
+        return CabChannelSource(channel, false)
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        if (ownsChannel) {
+            channel.close()
+        }
+    }
+}
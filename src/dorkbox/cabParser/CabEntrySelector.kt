@@ -0,0 +1,29 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser
+
+import dorkbox.cabParser.structure.CabFileEntry
+
+/**
+ * Implemented by a [CabStreamSaver] or a [CabBufferSaver] that knows which entries it wants before extraction starts. The
+ * cabinet is then only read and decoded up to the last of them, and the rest of the input is left alone.
+ */
+interface CabEntrySelector {
+    /**
+     * @return `false` if the entry is not going to be opened
+     */
+    fun isWanted(entry: CabFileEntry): Boolean
+}
@@ -18,7 +18,7 @@ package dorkbox.cabParser
 import java.io.IOException
 import java.io.InputStream
 
-internal class CabInputStream(private val inputStream: InputStream) : InputStream() {
+internal class CabInputStream(private val inputStream: InputStream) : CabSource() {
     companion object {
         /**
          * Reliably skips over and discards n bytes of data from the input stream
@@ -50,9 +50,12 @@ internal class CabInputStream(private val inputStream: InputStream) : InputStrea
         }
     }
 
-    var currentPosition = 0L
+    override var currentPosition = 0L
         private set
 
+    override val isSeekable: Boolean
+        get() = false
+
     private var a: Long = 0
     private val markSupported: Boolean
 
@@ -121,7 +124,7 @@ internal class CabInputStream(private val inputStream: InputStream) : InputStrea
     }
 
     @Throws(IOException::class)
-    fun seek(location: Long) {
+    override fun seek(location: Long) {
         if (location < currentPosition) {
             throw IOException("Cannot seek backwards")
         }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.WritableByteChannel
+
+/**
+ * Memory-mapped source. Cabinets up to 2GB are mapped once, larger ones through a sliding mapping.
+ */
+internal class CabMappedSource(private val channel: FileChannel, private val ownsChannel: Boolean = true) : CabSource() {
+    companion object {
+        private const val MAX_MAPPING = Int.MAX_VALUE.toLong()
+    }
+
+    private val size = channel.size()
+
+    private var mapping: MappedByteBuffer? = null
+
+    /** cabinet offset of mapping[0] */
+    private var mappingStart = 0L
+
+    override var currentPosition = 0L
+        private set
+
+    override val isSeekable: Boolean
+        get() = true
+
+    @Throws(IOException::class)
+    private fun map(position: Long, length: Int): MappedByteBuffer {
+        var mapping = this.mapping
+        if (mapping == null || position < mappingStart || position + length > mappingStart + mapping.capacity()) {
+            mappingStart = if (size <= MAX_MAPPING) 0L else position
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, mappingStart, Math.min(MAX_MAPPING, size - mappingStart))
+            mapping.order(ByteOrder.LITTLE_ENDIAN)
+            this.mapping = mapping
+        }
+        return mapping!!
+    }
+
+    @Throws(IOException::class)
+    override fun seek(location: Long) {
+        if (location < 0) {
+            throw IOException("Cannot seek to a negative position")
+        }
+        currentPosition = location
+    }
+
+    @Throws(IOException::class)
+    override fun slice(position: Long, length: Int): ByteBuffer? {
+        val available = Math.min(length.toLong(), Math.max(0L, size - position)).toInt()
+        val view = map(position, available).duplicate()
+        val offset = (position - mappingStart).toInt()
+        view.position(offset)
+        view.limit(offset + available)
+
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    @Throws(IOException::class)
+    override fun read(): Int {
+        if (currentPosition >= size) {
+            return -1
+        }
+
+        val mapping = map(currentPosition, 1)
+        val value = mapping.get((currentPosition - mappingStart).toInt()).toInt() and 0xFF
+        currentPosition++
+        return value
+    }
+
+    @Throws(IOException::class)
+    override fun read(bytes: ByteArray, offset: Int, length: Int): Int {
+        if (length == 0) {
+            return 0
+        }
+        if (currentPosition >= size) {
+            return -1
+        }
+
+        val count = Math.min(length.toLong(), size - currentPosition).toInt()
+        val view = map(currentPosition, count).duplicate()
+        view.position((currentPosition - mappingStart).toInt())
+        view.get(bytes, offset, count)
+        currentPosition += count
+        return count
+    }
+
+    @Throws(IOException::class)
+    override fun skip(ammount: Long): Long {
+        if (ammount <= 0) {
+            return 0
+        }
+
+        val skipped = Math.min(ammount, Math.max(0L, size - currentPosition))
+        currentPosition += skipped
+        return skipped
+    }
+
+    @Throws(IOException::class)
+    override fun available(): Int {
+        return Math.min(Int.MAX_VALUE.toLong(), Math.max(0L, size - currentPosition)).toInt()
+    }
+
+    @Throws(IOException::class)
+    override fun transferTo(position: Long, count: Long, target: WritableByteChannel): Boolean {
+        transfer(channel, position, count, target)
+        return true
+    }
+
+    /**
+     * The duplicate starts out sharing the current mapping, which is only ever read with absolute gets or through duplicates.
+     */
+    @Throws(IOException::class)
+    override fun duplicate(): CabSource? {
+        val source = CabMappedSource(channel, false)
+        source.mapping = mapping
+        source.mappingStart = mappingStart
+        return source
+    }
+
+    @Throws(IOException::class)
+    override fun close() {
+        mapping = null
+        if (ownsChannel) {
+            channel.close()
+        }
+    }
+}
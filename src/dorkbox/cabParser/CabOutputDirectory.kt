@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser
+
+import dorkbox.cabParser.structure.CabFileEntry
+import java.io.File
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Where extracted files are created.
+ *
+ * Entry names are turned into a [Path] below [directory] once, directories are only created the first time a file needs
+ * them. This is thread-safe.
+ */
+class CabOutputDirectory(directory: File) {
+    val directory: Path = directory.toPath().toAbsolutePath().normalize()
+
+    private val createdDirectories = ConcurrentHashMap.newKeySet<Path>()
+
+    /**
+     * @return where [entry] is extracted to
+     *
+     * @throws IOException if the entry name points outside of [directory]
+     */
+    @Throws(IOException::class)
+    fun resolve(entry: CabFileEntry): Path {
+        val name = entry.name.replace('\\', '/').trimStart('/')
+        val path = directory.resolve(name).normalize()
+
+        if (!path.startsWith(directory) || path == directory) {
+            throw IOException("${entry.name} is not inside of $directory")
+        }
+        return path
+    }
+
+    /**
+     * Creates the file for [entry] (and its directories), replacing a file that was there before.
+     */
+    @Throws(IOException::class)
+    fun create(entry: CabFileEntry): CabChannelOutputStream {
+        val path = resolve(entry)
+
+        val parent = path.parent
+        if (parent != null && !createdDirectories.contains(parent)) {
+            Files.createDirectories(parent)
+            createdDirectories.add(parent)
+        }
+
+        return CabChannelOutputStream(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                       StandardOpenOption.TRUNCATE_EXISTING))
+    }
+}
@@ -16,6 +16,8 @@
 package dorkbox.cabParser
 
 import dorkbox.cabParser.decompress.CabDecompressor
+import dorkbox.cabParser.decompress.ChecksumPolicy
+import dorkbox.cabParser.structure.CabConstants
 import dorkbox.cabParser.structure.CabEnumerator
 import dorkbox.cabParser.structure.CabFileEntry
 import dorkbox.cabParser.structure.CabFolderEntry
@@ -23,8 +25,14 @@ import dorkbox.cabParser.structure.CabHeader
 import dorkbox.updates.Updates.add
 import java.io.*
 import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.FutureTask
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 
-class CabParser {
+class CabParser : Closeable {
     companion object {
         /**
          * Gets the version number.
@@ -37,7 +45,7 @@ class CabParser {
         }
     }
 
-    private var cabInputStream: CabInputStream
+    private var cabInputStream: CabSource
     private var streamSaver: CabStreamSaver
     private var outputStream: ByteArrayOutputStream? = null
 
@@ -47,17 +55,44 @@ class CabParser {
 
     lateinit var files: Array<CabFileEntry>
 
+    private var cursor: FolderCursor? = null
+
+    /** indexes of the uncompressed folders, built the first time one of their files is extracted */
+    private var storedFolders: Array<CabStoredFolder?>? = null
+
+    private var readAheadExecutor: Executor? = null
+    private var readAheadBlocks = 0
+    private var translationExecutor: Executor? = null
+    private var speculativeExecutor: Executor? = null
+    private var speculativeBlocks = 0
+    private var directWindow = false
+
+    /**
+     * Which CFDATA checksums are verified while extracting. [ChecksumPolicy.NEVER] is only meant for trusted sources.
+     *
+     * Uncompressed records whose checksum is not verified are copied from the cabinet to the file without going through
+     * the heap, when both allow it. With checksums on, each of them is read once to check it.
+     */
+    var checksumPolicy = ChecksumPolicy.ALWAYS
+        set(value) {
+            field = value
+            cursor?.let { it.extractor.setChecksumPolicy(value) }
+        }
+
     constructor(inputStream: InputStream, fileNameToExtract: String) {
-        cabInputStream = CabInputStream(inputStream)
-        streamSaver = object : CabStreamSaver {
+        cabInputStream = CabSource.of(inputStream)
+        streamSaver = object : CabStreamSaver, CabEntrySelector {
             override fun saveReservedAreaData(data: ByteArray?, dataLength: Int): Boolean {
                 return false
             }
 
+            override fun isWanted(entry: CabFileEntry): Boolean {
+                return fileNameToExtract.equals(entry.name, ignoreCase = true)
+            }
+
             override fun openOutputStream(entry: CabFileEntry): OutputStream? {
-                val name = entry.name
-                return if (fileNameToExtract.equals(name, ignoreCase = true)) {
-                    outputStream = ByteArrayOutputStream(entry.size.toInt())
+                return if (isWanted(entry)) {
+                    outputStream = ByteArrayOutputStream(Math.min(entry.size, Int.MAX_VALUE.toLong() - 8).toInt())
                     outputStream!!
                 }
                 else {
@@ -76,18 +111,83 @@ class CabParser {
         readData()
     }
 
+    /**
+     * The parser never closes [streamSaver], not even when it is [Closeable] (for example, a
+     * [dorkbox.cabParser.extractor.FilteredCabStreamSaver] that saves on writer threads). That is left to the caller, once
+     * it is done extracting.
+     */
     constructor(inputStream: InputStream, streamSaver: CabStreamSaver) {
         this.streamSaver = streamSaver
-        cabInputStream = CabInputStream(inputStream)
+        cabInputStream = CabSource.of(inputStream)
         readData()
     }
 
     constructor(inputStream: InputStream, extractPath: File?) {
-        streamSaver = DefaultCabStreamSaver(extractPath)
-        cabInputStream = CabInputStream(inputStream)
+        streamSaver = StreamingCabStreamSaver(extractPath)
+        cabInputStream = CabSource.of(inputStream)
         readData()
     }
 
+    /**
+     * Reads up to [blocks] CFDATA records of each folder ahead of the decoder, validating their checksums, on [executor].
+     * This overlaps reading the cabinet with decoding it, which helps for slow sources (for example, network volumes), but
+     * copies the blocks of a memory-mapped cabinet. Each folder being decoded keeps one task of [executor] busy, which waits
+     * for the decoder, so it should not be the pool given to [extractStream].
+     *
+     * @param executor `null` to read on the decoding thread (the default)
+     */
+    fun setReadAhead(executor: Executor?, blocks: Int) {
+        readAheadExecutor = executor
+        readAheadBlocks = blocks
+        cursor?.close()
+        cursor = null
+    }
+
+    /**
+     * Runs the Intel E8 translation of LZX folders on [executor], overlapped with decoding the next block. This helps for
+     * cabinets of executables, where the translation is a large part of the decoding time.
+     *
+     * @param executor `null` to translate on the decoding thread (the default)
+     */
+    fun setTranslationStage(executor: Executor?) {
+        translationExecutor = executor
+        cursor?.close()
+        cursor = null
+    }
+
+    /**
+     * Decodes up to [blocks] CFDATA records of each MSZIP folder at the same time on [executor], filling in what a block
+     * copies from the previous one once that is known. This uses the pure Java decoder, so it only pays off with a few cores
+     * to spare, and those folders are not read ahead.
+     *
+     * @param executor `null` to decode one block after the other (the default)
+     */
+    fun setSpeculativeDecoding(executor: Executor?, blocks: Int) {
+        speculativeExecutor = executor
+        speculativeBlocks = blocks
+        cursor?.close()
+        cursor = null
+    }
+
+    /**
+     * Keeps the window of LZX folders (up to 2 MB each) in direct memory, and only the block being decoded on the heap. With
+     * many cabinets extracted at the same time, the windows then do not fill the heap with humongous objects, for one more
+     * copy of every block.
+     */
+    fun setDirectWindow(directWindow: Boolean) {
+        this.directWindow = directWindow
+        cursor?.close()
+        cursor = null
+    }
+
+    /**
+     * Stops reading ahead. The cabinet source is not closed, that is left to whoever opened it.
+     */
+    override fun close() {
+        cursor?.close()
+        cursor = null
+    }
+
     fun entries(): Enumeration<Any> {
         return CabEnumerator(this, false)
     }
@@ -103,76 +203,435 @@ class CabParser {
         header.read(cabInputStream)
         folders = arrayOfNulls<CabFolderEntry>(header.cFolders) as Array<CabFolderEntry>
 
+        val folderSize = header.folderEntrySize
+        val folderTable = header.readFolderTable(cabInputStream)
         for (i in 0 until header.cFolders) {
             folders[i] = CabFolderEntry()
-            folders[i].read(cabInputStream)
+            folders[i].read(folderTable, i * folderSize)
+        }
+
+        var firstData = Long.MAX_VALUE
+        for (folder in folders) {
+            if (folder.cCFData > 0) {
+                firstData = Math.min(firstData, folder.coffCabStart)
+            }
         }
 
         files = arrayOfNulls<CabFileEntry>(header.cFiles) as Array<CabFileEntry>
-        cabInputStream.seek(header.coffFiles)
+        val fileTable = header.readFileTable(cabInputStream, firstData)
+        var position = 0
         for (i in 0 until header.cFiles) {
             files[i] = CabFileEntry()
-            files[i].read(cabInputStream)
+            position = files[i].read(fileTable, position)
+        }
+    }
+
+    /**
+     * Extracts a single entry. Entries can be requested in any order when the parser was created from a seekable
+     * [CabSource], otherwise only entries after the previously extracted one can be reached.
+     */
+    @Throws(CabException::class, IOException::class)
+    fun extract(entry: CabFileEntry, outputStream: OutputStream) {
+        var cursor = this.cursor
+        if (cursor == null) {
+            cursor = FolderCursor(cabInputStream)
+            this.cursor = cursor
+        }
+
+        cursor.extract(entry, outputStream)
+    }
+
+    /**
+     * Extracts a single entry into [saver], as views of the decoded data. Entries can be requested in the same order as with
+     * [extract].
+     */
+    @Throws(CabException::class, IOException::class)
+    fun extract(entry: CabFileEntry, saver: CabBufferSaver) {
+        var cursor = this.cursor
+        if (cursor == null) {
+            cursor = FolderCursor(cabInputStream)
+            this.cursor = cursor
+        }
+
+        cursor.extract(entry, saver)
+    }
+
+    /**
+     * Extracts all files that [saver] opens, without copying the decoded data into streams.
+     */
+    @Throws(CabException::class, IOException::class)
+    fun extractBuffers(saver: CabBufferSaver) {
+        try {
+            for (fileIndex in 0 until wantedFiles(saver)) {
+                val entry = files[fileIndex]
+                if (entry.iFolder >= header.cFolders) {
+                    throw CorruptCabException()
+                }
+
+                if (saver.openEntry(entry)) {
+                    extract(entry, saver)
+                    saver.closeEntry(entry)
+                }
+            }
+        }
+        finally {
+            close()
         }
     }
 
     @Throws(CabException::class, IOException::class)
     fun extractStream(): ByteArrayOutputStream? {
-        var folderCount = -1
-        var currentCount = 0
-        var totalCount = 0
-        var init = true
-        val extractor = CabDecompressor(cabInputStream, header.cbCFData)
+        try {
+            for (fileIndex in 0 until wantedFiles(streamSaver)) {
+                val entry = files[fileIndex]
+                if (entry.iFolder >= header.cFolders) {
+                    throw CorruptCabException()
+                }
+
+                val localOutputStream = streamSaver.openOutputStream(entry)
+                if (localOutputStream != null) {
+                    extract(entry, localOutputStream)
+                    streamSaver.closeOutputStream(localOutputStream, entry)
+                }
+            }
+        }
+        finally {
+            close()
+        }
+        return outputStream
+    }
+
+    /**
+     * Extracts all files, decoding each folder on its own [executor] thread with its own decompressor.
+     *
+     * Every folder reads the cabinet through an independent [CabSource.duplicate], and the files of a folder are handed to
+     * the stream saver in folder order by the thread decoding it. The files of uncompressed folders need no decoder, so
+     * up to one task per core copies them, each through its own duplicate and buffer. Files of different folders are
+     * written at the same time, so the stream saver must be thread-safe.
+     *
+     * Falls back to [extractStream] when the cabinet source cannot be duplicated (it is not seekable).
+     */
+    @Throws(CabException::class, IOException::class)
+    fun extractStream(executor: Executor): ByteArrayOutputStream? {
+        val selector = streamSaver as? CabEntrySelector
+        val folderFiles = arrayOfNulls<MutableList<CabFileEntry>>(header.cFolders)
         for (fileIndex in 0 until header.cFiles) {
             val entry = files[fileIndex]
-            if (entry.iFolder != folderCount) {
-                if (folderCount + 1 >= header.cFolders) {
-                    throw CorruptCabException()
+            if (entry.iFolder < 0 || entry.iFolder >= header.cFolders) {
+                throw CorruptCabException()
+            }
+            if (selector != null && !selector.isWanted(entry)) {
+                // folders without a wanted file are not decoded at all
+                continue
+            }
+
+            var list = folderFiles[entry.iFolder]
+            if (list == null) {
+                list = ArrayList()
+                folderFiles[entry.iFolder] = list
+            }
+            list.add(entry)
+        }
+
+        val sources = ArrayList<CabSource>()
+        try {
+            // uncompressed folders are indexed up front from the cabinet source, every task reads from a duplicate of its own
+            val stored = BooleanArray(header.cFolders)
+            val lanes = IntArray(header.cFolders)
+            if (cabInputStream.isSeekable) {
+                for ((folderIndex, list) in folderFiles.withIndex()) {
+                    if (list == null) {
+                        continue
+                    }
+
+                    if (isStored(cabInputStream, folderIndex)) {
+                        storedFolder(cabInputStream, folderIndex)
+                        stored[folderIndex] = true
+                        lanes[folderIndex] = Math.min(list.size, Runtime.getRuntime().availableProcessors())
+                    }
+                    else {
+                        lanes[folderIndex] = 1
+                    }
                 }
+            }
 
-                folderCount++
-                init = true
-                currentCount = 0
-                totalCount = 0
+            val needed = lanes.sum()
+            while (sources.size < needed) {
+                sources.add(cabInputStream.duplicate() ?: break)
+            }
+            if (sources.isEmpty() || sources.size < needed) {
+                return extractStream()
             }
-            val localOutputStream = streamSaver.openOutputStream(entry)
-            if (localOutputStream != null) {
-                if (init) {
-                    val cabFolderEntry = folders[folderCount]
-                    cabInputStream.seek(cabFolderEntry.coffCabStart)
-                    extractor.initialize(cabFolderEntry.compressionMethod)
-                    init = false
-                }
-                if (currentCount != totalCount) {
-                    extractor.read((totalCount - currentCount).toLong(), object : OutputStream() {
-                        @Throws(IOException::class)
-                        override fun write(i: Int) {
-                            //do nothing
-                        }
 
-                        @Throws(IOException::class)
-                        override fun write(b: ByteArray) {
-                            //do nothing
-                        }
+            val failed = AtomicBoolean(false)
+            val tasks = ArrayList<FutureTask<Unit>>(sources.size)
+            var sourceIndex = 0
+            for ((folderIndex, list) in folderFiles.withIndex()) {
+                if (list == null) {
+                    continue
+                }
 
-                        @Throws(IOException::class)
-                        override fun write(b: ByteArray, off: Int, len: Int) {
-                            //do nothing
+                if (stored[folderIndex]) {
+                    // no decoder state, so a few tasks share the files, and copy them one after the other
+                    val nextFile = AtomicInteger()
+                    for (lane in 0 until lanes[folderIndex]) {
+                        val source = sources[sourceIndex++]
+                        val task = FutureTask {
+                            try {
+                                extractStored(source, list, nextFile, failed)
+                            }
+                            catch (e: Throwable) {
+                                failed.set(true)
+                                throw e
+                            }
                         }
+                        tasks.add(task)
+                    }
+                    continue
+                }
+
+                val source = sources[sourceIndex++]
+                val task = FutureTask {
+                    try {
+                        extractFolder(source, list, failed)
+                    }
+                    catch (e: Throwable) {
+                        failed.set(true)
+                        throw e
+                    }
+                }
+                tasks.add(task)
+            }
+
+            var failure: Throwable? = null
+            var submitted = 0
+            try {
+                while (submitted < tasks.size) {
+                    executor.execute(tasks[submitted])
+                    submitted++
+                }
+            }
+            catch (e: RejectedExecutionException) {
+                // the tasks that were not taken never run, the ones that were stop at their next file
+                failed.set(true)
+                failure = e
+                for (index in submitted until tasks.size) {
+                    tasks[index].cancel(false)
+                }
+            }
 
-                        @Throws(IOException::class)
-                        override fun flush() {
-                            //do nothing
+            // wait for every folder before returning (even when interrupted), so nothing still reads from the duplicated
+            // sources or writes to the stream saver
+            var interrupted = false
+            for (index in 0 until submitted) {
+                while (true) {
+                    try {
+                        tasks[index].get()
+                    }
+                    catch (e: ExecutionException) {
+                        if (failure == null) {
+                            failure = e.cause ?: e
                         }
-                    })
-                    currentCount = totalCount
+                    }
+                    catch (e: InterruptedException) {
+                        failed.set(true)
+                        interrupted = true
+                        continue
+                    }
+                    break
                 }
-                extractor.read(entry.cbFile, localOutputStream)
-                streamSaver.closeOutputStream(localOutputStream, entry)
-                currentCount = (currentCount + entry.cbFile).toInt()
             }
-            totalCount = (totalCount + entry.cbFile).toInt()
+
+            if (interrupted) {
+                Thread.currentThread().interrupt()
+                throw InterruptedIOException("Interrupted while extracting folders")
+            }
+            if (failure != null) {
+                throw failure
+            }
         }
+        finally {
+            for (source in sources) {
+                try {
+                    source.close()
+                }
+                catch (ignored: IOException) {
+                }
+            }
+        }
+
         return outputStream
     }
+
+    /**
+     * Number of files up to the last one that [saver] wants, when it tells up front (it is a [CabEntrySelector]). Nothing after
+     * that file has to be read.
+     */
+    private fun wantedFiles(saver: Any): Int {
+        if (saver !is CabEntrySelector) {
+            return header.cFiles
+        }
+
+        for (fileIndex in header.cFiles - 1 downTo 0) {
+            if (saver.isWanted(files[fileIndex])) {
+                return fileIndex + 1
+            }
+        }
+        return 0
+    }
+
+    /**
+     * Copies files of an uncompressed folder from [source], taking the index of the next one from [nextFile], until there
+     * are none left.
+     */
+    @Throws(CabException::class, IOException::class)
+    private fun extractStored(source: CabSource, entries: List<CabFileEntry>, nextFile: AtomicInteger, failed: AtomicBoolean) {
+        val buffer = ByteArray(CabStoredFolder.BUFFER_SIZE)
+
+        while (!failed.get()) {
+            val fileIndex = nextFile.getAndIncrement()
+            if (fileIndex >= entries.size) {
+                return
+            }
+
+            val entry = entries[fileIndex]
+            val localOutputStream = streamSaver.openOutputStream(entry)
+            if (localOutputStream != null) {
+                storedFolder(source, entry.iFolder).copy(source, entry.offFolderStart, entry.cbFile, localOutputStream,
+                                                        checksumPolicy, buffer)
+                streamSaver.closeOutputStream(localOutputStream, entry)
+            }
+        }
+    }
+
+    @Throws(CabException::class, IOException::class)
+    private fun extractFolder(source: CabSource, entries: List<CabFileEntry>, failed: AtomicBoolean) {
+        val cursor = FolderCursor(source)
+
+        try {
+            for (entry in entries.sortedBy { it.offFolderStart }) {
+                if (failed.get()) {
+                    return
+                }
+
+                val localOutputStream = streamSaver.openOutputStream(entry)
+                if (localOutputStream != null) {
+                    cursor.extract(entry, localOutputStream)
+                    streamSaver.closeOutputStream(localOutputStream, entry)
+                }
+            }
+        }
+        finally {
+            cursor.close()
+        }
+    }
+
+    /**
+     * `true` if the files of the folder are copied by range from [source] instead of being decoded, because the folder is
+     * uncompressed and [source] can seek.
+     */
+    @Throws(CabException::class)
+    private fun isStored(source: CabSource, folderIndex: Int): Boolean {
+        if (folderIndex < 0 || folderIndex >= header.cFolders) {
+            throw CorruptCabException()
+        }
+        return folders[folderIndex].compressionMethod and 0xF == CabConstants.COMPRESSION_TYPE_NONE && source.isSeekable
+    }
+
+    /**
+     * Index of an uncompressed folder, which is built by reading its CFDATA headers from [source] the first time.
+     */
+    @Synchronized
+    @Throws(CabException::class, IOException::class)
+    private fun storedFolder(source: CabSource, folderIndex: Int): CabStoredFolder {
+        var storedFolders = this.storedFolders
+        if (storedFolders == null) {
+            storedFolders = arrayOfNulls(header.cFolders)
+            this.storedFolders = storedFolders
+        }
+
+        var stored = storedFolders[folderIndex]
+        if (stored == null) {
+            stored = CabStoredFolder(source, folders[folderIndex], header.cbCFData)
+            storedFolders[folderIndex] = stored
+        }
+        return stored
+    }
+
+    /**
+     * Decompressor positioned somewhere in a folder, which only has to reseek when going to another folder, or backwards.
+     */
+    private inner class FolderCursor(private val source: CabSource) : Closeable {
+        val extractor = CabDecompressor(source, header.cbCFData)
+
+        init {
+            extractor.setReadAhead(readAheadExecutor, readAheadBlocks)
+            extractor.setTranslationStage(translationExecutor)
+            extractor.setSpeculativeDecoding(speculativeExecutor, speculativeBlocks)
+            extractor.setDirectWindow(directWindow)
+            extractor.setChecksumPolicy(checksumPolicy)
+        }
+
+        /** folder the extractor is currently positioned in, or -1 */
+        private var currentFolder = -1
+
+        /** uncompressed offset of the extractor inside the current folder */
+        private var folderPosition = 0L
+
+        private var storedBuffer: ByteArray? = null
+
+        @Throws(CabException::class, IOException::class)
+        fun extract(entry: CabFileEntry, outputStream: OutputStream) {
+            if (isStored(source, entry.iFolder)) {
+                if (currentFolder != -1) {
+                    // the source is moved, so the extractor has to stop, and seek again for its next file
+                    extractor.close()
+                    currentFolder = -1
+                }
+
+                val stored = storedFolder(source, entry.iFolder)
+                var buffer = storedBuffer
+                if (buffer == null) {
+                    buffer = ByteArray(CabStoredFolder.BUFFER_SIZE)
+                    storedBuffer = buffer
+                }
+                stored.copy(source, entry.offFolderStart, entry.cbFile, outputStream, checksumPolicy, buffer)
+                return
+            }
+
+            moveTo(entry)
+            extractor.read(entry.cbFile, outputStream)
+            folderPosition = entry.offFolderStart + entry.cbFile
+        }
+
+        @Throws(CabException::class, IOException::class)
+        fun extract(entry: CabFileEntry, saver: CabBufferSaver) {
+            moveTo(entry)
+            extractor.read(entry.cbFile, saver, entry)
+            folderPosition = entry.offFolderStart + entry.cbFile
+        }
+
+        @Throws(CabException::class, IOException::class)
+        private fun moveTo(entry: CabFileEntry) {
+            if (entry.iFolder < 0 || entry.iFolder >= header.cFolders) {
+                throw CorruptCabException()
+            }
+
+            if (entry.iFolder != currentFolder || entry.offFolderStart < folderPosition) {
+                extractor.initialize(folders[entry.iFolder])
+                currentFolder = entry.iFolder
+                folderPosition = 0L
+            }
+
+            if (folderPosition < entry.offFolderStart) {
+                extractor.skip(entry.offFolderStart - folderPosition)
+                folderPosition = entry.offFolderStart
+            }
+        }
+
+        override fun close() {
+            extractor.close()
+            currentFolder = -1
+        }
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser
+
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.SeekableByteChannel
+import java.nio.channels.WritableByteChannel
+import java.nio.file.StandardOpenOption
+
+/**
+ * Where the bytes of a cabinet come from.
+ *
+ * A source always knows its absolute position in the cabinet. Seekable sources can also move backwards, which lets
+ * [CabParser] decode folders in any order instead of only in file order.
+ */
+abstract class CabSource : InputStream() {
+    companion object {
+        /**
+         * Forward-only source. Seeking backwards throws an [IOException].
+         */
+        @JvmStatic
+        fun of(inputStream: InputStream): CabSource {
+            if (inputStream is CabSource) {
+                return inputStream
+            }
+            return CabInputStream(inputStream)
+        }
+
+        /**
+         * Random-access source, using positional reads when the channel is a [FileChannel].
+         */
+        @JvmStatic
+        fun of(channel: SeekableByteChannel): CabSource {
+            return CabChannelSource(channel)
+        }
+
+        /**
+         * Random-access source for a cabinet on disk.
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun of(file: File): CabSource {
+            return CabChannelSource(FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        }
+
+        /**
+         * Random-access source that memory-maps the cabinet, so CFDATA blocks are decoded straight out of the mapping
+         * instead of being copied into a read buffer first.
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun mapped(file: File): CabSource {
+            return CabMappedSource(FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        }
+    }
+
+    /**
+     * absolute offset in the cabinet of the next byte that will be read
+     */
+    abstract val currentPosition: Long
+
+    /**
+     * `true` if this source can [seek] backwards
+     */
+    abstract val isSeekable: Boolean
+
+    /**
+     * Moves to an absolute offset in the cabinet.
+     */
+    @Throws(IOException::class)
+    abstract fun seek(location: Long)
+
+    /**
+     * Zero-copy, little-endian view of up to [length] bytes starting at [position] (shorter at the end of the cabinet).
+     *
+     * @return `null` if this source cannot provide views, and the bytes have to be read instead
+     */
+    @Throws(IOException::class)
+    open fun slice(position: Long, length: Int): ByteBuffer? {
+        return null
+    }
+
+    /**
+     * Copies [count] bytes starting at [position] straight to [target], without moving this source, and without bringing
+     * them onto the heap when the platform can avoid it (see [FileChannel.transferTo]).
+     *
+     * @return `false` if this source cannot transfer, and the bytes have to be read instead
+     */
+    @Throws(IOException::class)
+    open fun transferTo(position: Long, count: Long, target: WritableByteChannel): Boolean {
+        return false
+    }
+
+    @Throws(IOException::class)
+    internal fun transfer(channel: FileChannel, position: Long, count: Long, target: WritableByteChannel) {
+        var done = 0L
+        while (done < count) {
+            val transferred = channel.transferTo(position + done, count - done, target)
+            if (transferred <= 0L) {
+                throw EOFException()
+            }
+            done += transferred
+        }
+    }
+
+    /**
+     * Independent source over the same cabinet, with its own position, so several folders can be read at the same time.
+     * Closing the duplicate does not close this source.
+     *
+     * @return `null` if this source cannot be duplicated
+     */
+    @Throws(IOException::class)
+    open fun duplicate(): CabSource? {
+        return null
+    }
+}
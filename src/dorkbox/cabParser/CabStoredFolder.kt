@@ -0,0 +1,172 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser
+
+import dorkbox.cabParser.decompress.ChecksumPolicy
+import dorkbox.cabParser.structure.CabConstants
+import dorkbox.cabParser.structure.CabFolderEntry
+import dorkbox.cabParser.structure.CfDataRecord
+import java.io.EOFException
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.*
+
+/**
+ * Where the data of every CFDATA record of an uncompressed folder is in the cabinet, so any range of the folder can be copied
+ * straight out of the cabinet, without a decoder and without reading the folder from its start.
+ *
+ * Only the CFDATA headers are read to build it, and only [verified] changes afterwards, so several threads can copy from it
+ * at once, each with its own source.
+ */
+internal class CabStoredFolder(source: CabSource, folder: CabFolderEntry, sizeOfBlockData: Int) {
+    companion object {
+        /**
+         * Size of the buffer [copy] needs
+         */
+        const val BUFFER_SIZE = CabConstants.CAB_BLOCK_SIZE
+    }
+
+    private val records = Array(folder.cCFData) { CfDataRecord(sizeOfBlockData) }
+
+    /** cabinet offset of the data of each record */
+    private val dataStart = LongArray(folder.cCFData)
+
+    /** folder offset of the data of each record, and the size of the folder after the last one */
+    private val folderStart = LongArray(folder.cCFData + 1)
+
+    /**
+     * Records whose checksum was checked. Only ever set once a record was checked, so a thread that does not see it yet only
+     * checks the record again.
+     */
+    private val verified = BooleanArray(folder.cCFData)
+
+    init {
+        source.seek(folder.coffCabStart)
+
+        for (i in records.indices) {
+            val record = records[i]
+            record.readHeader(source, BUFFER_SIZE)
+            if (record.cbData != record.cbUncomp) {
+                throw CorruptCabException("Corrupt cfData record")
+            }
+
+            dataStart[i] = source.currentPosition
+            folderStart[i + 1] = folderStart[i] + record.cbData
+            source.seek(dataStart[i] + record.cbData)
+        }
+    }
+
+    /**
+     * Copies [length] bytes of the folder, starting at [offset], to [output]. Every record is read once to check its checksum
+     * (when [checksumPolicy] asks for it), and written from there. Records that were already checked, by an earlier file of
+     * the same record, and records that are not checked at all are transferred without being read, when [output] is a
+     * [CabChannelOutputStream] and the source allows it. So with checksums on, only the records shared by several files
+     * skip the heap.
+     *
+     * @param buffer at least [BUFFER_SIZE] long
+     */
+    @Throws(CabException::class, IOException::class)
+    fun copy(source: CabSource, offset: Long, length: Long, output: OutputStream, checksumPolicy: ChecksumPolicy, buffer: ByteArray) {
+        if (offset < 0L || length < 0L || offset + length > folderStart[records.size]) {
+            throw CorruptCabException("Folder has fewer CFDATA records than its files need")
+        }
+
+        var index = Arrays.binarySearch(folderStart, offset)
+        if (index < 0) {
+            index = -index - 2
+        }
+
+        var position = offset
+        val end = offset + length
+        while (position < end) {
+            // empty records are skipped over here
+            while (folderStart[index + 1] <= position) {
+                index++
+            }
+
+            val record = records[index]
+            val start = (position - folderStart[index]).toInt()
+            val count = Math.min(end - position, (record.cbData - start).toLong()).toInt()
+
+            if (!verified[index] && checksumPolicy.verifies(index)) {
+                val data = readRecord(source, index, buffer)
+                if (!record.validateCheckSum(data)) {
+                    throw CorruptCabException("Invalid CFDATA checksum")
+                }
+                verified[index] = true
+                write(data, start, count, output, buffer)
+            }
+            else if (output !is CabChannelOutputStream || !output.transferFrom(source, dataStart[index] + start, count.toLong())) {
+                source.seek(dataStart[index] + start)
+                readFully(source, buffer, count)
+                output.write(buffer, 0, count)
+            }
+
+            position += count
+        }
+    }
+
+    /**
+     * Little-endian view of the data of a record, either straight from the source or read into [buffer].
+     */
+    @Throws(IOException::class)
+    private fun readRecord(source: CabSource, index: Int, buffer: ByteArray): ByteBuffer {
+        val cbData = records[index].cbData
+
+        val view = source.slice(dataStart[index], cbData)
+        if (view != null && view.limit() >= cbData) {
+            return view
+        }
+
+        source.seek(dataStart[index])
+        readFully(source, buffer, cbData)
+        return ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    @Throws(IOException::class)
+    private fun readFully(source: CabSource, buffer: ByteArray, count: Int) {
+        var read = 0
+        while (read < count) {
+            val n = source.read(buffer, read, count - read)
+            if (n < 0) {
+                throw EOFException()
+            }
+            read += n
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun write(data: ByteBuffer, start: Int, count: Int, output: OutputStream, buffer: ByteArray) {
+        if (data.hasArray()) {
+            output.write(data.array(), data.arrayOffset() + start, count)
+            return
+        }
+
+        val view = data.duplicate()
+        view.limit(start + count)
+        view.position(start)
+        if (output is CabChannelOutputStream) {
+            output.write(view)
+            return
+        }
+
+        // direct memory (a memory mapped cabinet), which streams can only take from an array
+        view.get(buffer, 0, count)
+        output.write(buffer, 0, count)
+    }
+}
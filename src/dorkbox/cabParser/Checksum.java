@@ -15,31 +15,67 @@
  */
 package dorkbox.cabParser;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * CFDATA checksum: the XOR of all little-endian 32-bit words of a block, where a trailing partial word is taken in reverse.
+ * <p>
+ * Words are folded 8 bytes at a time, two words per {@code long}. Folding can be split over several calls with
+ * {@link #update(long, ByteBuffer, int, int)}, for example to checksum a block while it is being read.
+ */
 public final class Checksum {
-    @SuppressWarnings("fallthrough")
     public static int calculate(byte[] bytes, int currentBlock, int seed) {
-        int c1 = (byte) (seed & 0xFF);
-        int c2 = (byte) (seed >>> 8 & 0xFF);
-        int c3 = (byte) (seed >>> 16 & 0xFF);
-        int c4 = (byte) (seed >>> 24 & 0xFF);
+        return calculate(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 0, currentBlock, seed);
+    }
+
+    /**
+     * Same as {@link #calculate(byte[], int, int)}, over {@code length} bytes of a little-endian buffer starting at
+     * {@code offset}.
+     */
+    public static int calculate(ByteBuffer bytes, int offset, int length, int seed) {
+        return finish(0L, bytes, offset, length, seed);
+    }
+
+    /**
+     * Folds the whole 8-byte steps of {@code length} bytes (of a little-endian buffer) into {@code words}. Bytes after the
+     * last whole step are ignored, and have to be passed to {@link #finish(long, ByteBuffer, int, int, int)}.
+     */
+    public static long update(long words, ByteBuffer bytes, int offset, int length) {
+        int end = offset + (length & ~7);
+        for (int i = offset; i < end; i += 8) {
+            words ^= bytes.getLong(i);
+        }
+        return words;
+    }
+
+    /**
+     * Completes a checksum.
+     *
+     * @param words folded by {@link #update(long, ByteBuffer, int, int)} over the bytes before {@code offset}, which must be
+     *              a multiple of 8 bytes
+     * @param offset where the rest of the block starts
+     * @param length how many bytes of the block are left
+     */
+    @SuppressWarnings("fallthrough")
+    public static int finish(long words, ByteBuffer bytes, int offset, int length, int seed) {
+        words = update(words, bytes, offset, length);
+        int j = offset + (length & ~7);
 
-        int j = 0;
-        int sizeOfBlock = currentBlock >>> 2;
-        while (sizeOfBlock-- > 0) {
-            c1 = (byte) (c1 ^ bytes[j++]);
-            c2 = (byte) (c2 ^ bytes[j++]);
-            c3 = (byte) (c3 ^ bytes[j++]);
-            c4 = (byte) (c4 ^ bytes[j++]);
+        int sum = seed ^ (int) words ^ (int) (words >>> 32);
+        if ((length & 4) != 0) {
+            sum ^= bytes.getInt(j);
+            j += 4;
         }
 
-        switch (currentBlock & 0x3) {
+        switch (length & 0x3) {
             case 3 :
-                c3 = (byte) (c3 ^ bytes[j++]);
+                sum ^= (bytes.get(j++) & 0xFF) << 16;
             case 2 :
-                c2 = (byte) (c2 ^ bytes[j++]);
+                sum ^= (bytes.get(j++) & 0xFF) << 8;
             case 1 :
-                c1 = (byte) (c1 ^ bytes[j++]);
+                sum ^= bytes.get(j) & 0xFF;
         }
-        return c1 & 0xFF | (c2 & 0xFF) << 8 | (c3 & 0xFF) << 16 | (c4 & 0xFF) << 24;
+        return sum;
     }
 }
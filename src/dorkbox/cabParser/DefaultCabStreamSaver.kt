@@ -22,6 +22,8 @@ import java.io.*
  * provide default CabStreamSaver
  */
 class DefaultCabStreamSaver(private val extractPath: File?) : CabStreamSaver {
+    private val output = CabOutputDirectory(extractPath ?: File("."))
+
     init {
         if (extractPath != null) {
             if (!extractPath.exists()) {
@@ -34,15 +36,13 @@ class DefaultCabStreamSaver(private val extractPath: File?) : CabStreamSaver {
     }
 
     override fun openOutputStream(entry: CabFileEntry): OutputStream? {
-        return ByteArrayOutputStream(entry.size.toInt())
+        return ByteArrayOutputStream(Math.min(entry.size, Int.MAX_VALUE.toLong() - 8).toInt())
     }
 
     override fun closeOutputStream(outputStream: OutputStream, entry: CabFileEntry) {
         try {
             val bos = outputStream as ByteArrayOutputStream
-            val cabEntityFile = File(extractPath, entry.name.replace("\\", File.separator))
-            cabEntityFile.getParentFile().mkdirs()
-            val fileOutputStream = FileOutputStream(cabEntityFile)
+            val fileOutputStream = output.create(entry)
             try {
                 bos.writeTo(fileOutputStream)
             }
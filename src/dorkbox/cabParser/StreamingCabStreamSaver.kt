@@ -0,0 +1,75 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser
+
+import dorkbox.cabParser.structure.CabFileEntry
+import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Saves every file to [extractPath] while it is being decoded, so memory use does not depend on the size of the files.
+ *
+ * It is also a [CabBufferSaver], which writes the decoded data to the file without copying it. Files are tracked per entry, so
+ * this can be used with [CabParser.extractStream] on an executor.
+ */
+class StreamingCabStreamSaver(private val extractPath: File?) : CabStreamSaver, CabBufferSaver {
+    private val openFiles = ConcurrentHashMap<CabFileEntry, CabChannelOutputStream>()
+    private val output = CabOutputDirectory(extractPath ?: File("."))
+
+    init {
+        if (extractPath != null) {
+            if (!extractPath.exists()) {
+                extractPath.mkdirs()
+            }
+            else if (!extractPath.isDirectory()) {
+                throw CabException("extractPath is not directory")
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    override fun openOutputStream(entry: CabFileEntry): OutputStream? {
+        return output.create(entry)
+    }
+
+    override fun closeOutputStream(outputStream: OutputStream, entry: CabFileEntry) {
+        outputStream.close()
+    }
+
+    @Throws(IOException::class)
+    override fun openEntry(entry: CabFileEntry): Boolean {
+        openFiles[entry] = output.create(entry)
+        return true
+    }
+
+    @Throws(IOException::class)
+    override fun write(entry: CabFileEntry, data: ByteBuffer) {
+        val outputStream = openFiles[entry] ?: throw IOException("${entry.name} is not open")
+        outputStream.write(data)
+    }
+
+    @Throws(IOException::class)
+    override fun closeEntry(entry: CabFileEntry) {
+        openFiles.remove(entry)?.close()
+    }
+
+    override fun saveReservedAreaData(data: ByteArray?, dataLength: Int): Boolean {
+        return false
+    }
+}
@@ -15,85 +15,436 @@
  */
 package dorkbox.cabParser.decompress;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
+import dorkbox.cabParser.CabBufferSaver;
 import dorkbox.cabParser.CabException;
+import dorkbox.cabParser.CabSource;
 import dorkbox.cabParser.CorruptCabException;
 import dorkbox.cabParser.decompress.lzx.DecompressLzx;
-import dorkbox.cabParser.decompress.none.DecompressNone;
-import dorkbox.cabParser.decompress.zip.DecompressZip;
 import dorkbox.cabParser.structure.CabConstants;
+import dorkbox.cabParser.structure.CabFileEntry;
+import dorkbox.cabParser.structure.CabFolderEntry;
 import dorkbox.cabParser.structure.CfDataRecord;
 
-public final class CabDecompressor implements CabConstants {
+public final class CabDecompressor implements CabConstants, Closeable {
+    /**
+     * Decoders read a little past the end of a block as look-ahead, so a zero-copy view must have this many bytes after the data
+     */
+    private static final int INPUT_PADDING = 32;
+
     private byte[]          readBuffer;
+    private ByteBuffer      readView;
     private byte[]          bytes;
+    private ByteBuffer      bytesView;
+
+    /** decoded data of the current block, {@link #outputOffset} is relative to its start */
+    private ByteBuffer      output;
+    private ByteBuffer      readOnlySource;
+    private ByteBuffer      readOnlyOutput;
+    private byte[]          copyBuffer;
+    private CabReadAhead.Block heldBlock;
 
     private long            uncompressedDataSize;
 
     private int             outputOffset;
     private int             compressionMethod;
+    /** whether the current decompressor was taken with an off-heap window, to hand it back under the same key */
+    private boolean         directDecompressor;
 
     private InputStream     inputStream;
+    private CabSource       source;
     private Decompressor    decompressor;
     private CfDataRecord cfDataRecord;
+    private int             sizeOfBlockData;
+
+    private Executor        readAheadExecutor;
+    private int             readAheadBlocks;
+    private CabReadAhead    readAhead;
+
+    private ChecksumPolicy  checksumPolicy = ChecksumPolicy.ALWAYS;
+    /** index of the next CFDATA record in the folder */
+    private int             blockIndex;
+    /** CFDATA records left in the folder, when it was started with {@link #initialize(CabFolderEntry)} */
+    private int             blocksLeft;
+
+    private Executor        translationExecutor;
+    /** the two frames of the translation stage, one is handed out while the other one is translated */
+    private Frame[]         frames;
+    private Frame           pendingFrame;
+    private boolean         translating;
+
+    private Executor        speculativeExecutor;
+    private int             speculativeBlocks;
+    private CabSpeculativeZip speculative;
+    private boolean         speculating;
+
+    private boolean         directWindow;
 
     public CabDecompressor(InputStream paramInputStream, int sizeOfBlockData) {
         this.inputStream = paramInputStream;
+        if (paramInputStream instanceof CabSource) {
+            this.source = (CabSource) paramInputStream;
+        }
         this.uncompressedDataSize = 0L;
         this.outputOffset = 0;
         this.compressionMethod = -1;
         this.bytes = new byte[33028];
+        this.bytesView = ByteBuffer.wrap(this.bytes);
         this.cfDataRecord = new CfDataRecord(sizeOfBlockData);
+        this.sizeOfBlockData = sizeOfBlockData;
+    }
+
+    /**
+     * Reads up to {@code blocks} CFDATA records ahead of the decoder, and validates their checksums, on the executor. This
+     * overlaps slow reads with decoding, and applies to folders started with {@link #initialize(CabFolderEntry)}.
+     * <p>
+     * Every folder being decoded keeps one task of the executor busy until the folder was read, or the decompressor is
+     * re-initialized or closed.
+     *
+     * @param executor {@code null} to read on the calling thread
+     */
+    public void setReadAhead(Executor executor, int blocks) {
+        this.readAheadExecutor = executor;
+        this.readAheadBlocks = blocks;
+    }
+
+    /**
+     * Runs the Intel E8 translation of LZX folders on the executor, while the next block is decoded. The decoder then always
+     * stays one block ahead, and every block that is not skipped is copied out of the LZX window. This applies to folders
+     * started with {@link #initialize(CabFolderEntry)}.
+     *
+     * @param executor {@code null} to translate on the calling thread
+     */
+    public void setTranslationStage(Executor executor) {
+        this.translationExecutor = executor;
+    }
+
+    /**
+     * Decodes up to {@code blocks} CFDATA records of MSZIP folders at the same time, on the executor. Each block is decoded
+     * before the one it copies from is known, and the bytes it copies are filled in once that block was handed out. This
+     * applies to folders started with {@link #initialize(CabFolderEntry)}, which then are not read ahead.
+     * <p>
+     * This uses the pure Java decoder, so it needs a few cores to be faster than the native one.
+     *
+     * @param executor {@code null} to decode one block after the other, on the calling thread
+     */
+    public void setSpeculativeDecoding(Executor executor, int blocks) {
+        this.speculativeExecutor = executor;
+        this.speculativeBlocks = blocks;
+    }
+
+    /**
+     * Keeps the window of LZX folders (up to 2 MB) in a direct buffer instead of on the heap, and only the block being decoded
+     * on the heap. This applies from the next folder with another compression method on.
+     */
+    public void setDirectWindow(boolean directWindow) {
+        this.directWindow = directWindow;
+    }
+
+    /**
+     * Which CFDATA checksums are verified, {@link ChecksumPolicy#ALWAYS} by default.
+     */
+    public void setChecksumPolicy(ChecksumPolicy checksumPolicy) {
+        this.checksumPolicy = checksumPolicy;
     }
 
     public void read(long size, OutputStream outputStream) throws IOException, CabException {
-        if (this.uncompressedDataSize >= size) {
-            outputStream.write(this.bytes, this.outputOffset, (int) size);
-            this.uncompressedDataSize -= size;
-            this.outputOffset = (int) (this.outputOffset + size);
-            return;
+        read(size, outputStream, null, null);
+    }
+
+    /**
+     * Hands the next {@code size} decoded bytes to the saver, as read-only views of where they were decoded (the LZX window,
+     * the read buffer or a memory mapped cabinet) whenever the decoder allows it.
+     */
+    public void read(long size, CabBufferSaver saver, CabFileEntry entry) throws IOException, CabException {
+        read(size, null, saver, entry);
+    }
+
+    private void read(long size, OutputStream outputStream, CabBufferSaver saver, CabFileEntry entry) throws IOException, CabException {
+        while (true) {
+            if (this.uncompressedDataSize > 0L) {
+                int length = (int) Math.min(size, this.uncompressedDataSize);
+                write(length, outputStream, saver, entry);
+
+                this.outputOffset += length;
+                this.uncompressedDataSize -= length;
+                size -= length;
+            }
+
+            if (size <= 0L) {
+                return;
+            }
+            nextBlock();
         }
+    }
+
+    /**
+     * Skips the next {@code size} decoded bytes. Blocks that are skipped as a whole are still decoded, to keep the state of the
+     * decoder, but never copied out of it or translated.
+     */
+    public void skip(long size) throws IOException, CabException {
+        while (true) {
+            if (this.uncompressedDataSize > 0L) {
+                int length = (int) Math.min(size, this.uncompressedDataSize);
 
-        if (this.uncompressedDataSize > 0L) {
-            outputStream.write(this.bytes, this.outputOffset, (int) this.uncompressedDataSize);
+                this.outputOffset += length;
+                this.uncompressedDataSize -= length;
+                size -= length;
+            }
+
+            if (size <= 0L) {
+                return;
+            }
+            nextBlock(size);
         }
+    }
 
-        size -= this.uncompressedDataSize;
-        this.outputOffset = 0;
-        this.uncompressedDataSize = 0L;
+    private void write(int length, OutputStream outputStream, CabBufferSaver saver, CabFileEntry entry) throws IOException {
+        ByteBuffer output = this.output;
+
+        if (saver != null) {
+            if (output != this.readOnlySource) {
+                this.readOnlySource = output;
+                this.readOnlyOutput = output.asReadOnlyBuffer();
+            }
+
+            ByteBuffer view = this.readOnlyOutput;
+            view.clear();
+            view.position(this.outputOffset);
+            view.limit(this.outputOffset + length);
+            saver.write(entry, view);
+        }
+        else if (output.hasArray()) {
+            outputStream.write(output.array(), output.arrayOffset() + this.outputOffset, length);
+        }
+        else {
+            // direct memory (a memory mapped cabinet), which streams can only take from an array
+            if (this.copyBuffer == null) {
+                this.copyBuffer = new byte[CabConstants.CAB_BLOCK_SIZE];
+            }
+
+            ByteBuffer view = output.duplicate();
+            view.position(this.outputOffset);
+            while (length > 0) {
+                int count = Math.min(length, this.copyBuffer.length);
+                view.get(this.copyBuffer, 0, count);
+                outputStream.write(this.copyBuffer, 0, count);
+                length -= count;
+            }
+        }
+    }
+
+    private void nextBlock() throws IOException, CabException {
+        nextBlock(0L);
+    }
+
+    /**
+     * Decodes the next CFDATA record of the folder.
+     *
+     * @param skip decoded bytes that are skipped from here on
+     */
+    private void nextBlock(long skip) throws IOException, CabException {
+        ByteBuffer output;
+
+        if (this.translating) {
+            Frame frame = this.pendingFrame;
+            this.pendingFrame = null;
+            if (frame == null) {
+                frame = decodeFrame(this.frames[0], skip);
+            }
+            else if (skip > 0L) {
+                // decoded ahead before the skip was known
+                frame.skip(skip);
+            }
+
+            // decode the next block while this one is translated, unless it may be skipped as well
+            if (!frame.skipped && this.blocksLeft > 0) {
+                this.pendingFrame = decodeFrame(frame == this.frames[0] ? this.frames[1] : this.frames[0], 0L);
+            }
+
+            output = frame.await();
+        }
+        else {
+            output = decodeBlock(skip);
+        }
+
+        this.output = output;
+        this.outputOffset = output.position();
+        this.uncompressedDataSize = output.remaining();
+    }
+
+    /**
+     * Decodes the next CFDATA record of the folder into a frame, and starts translating it. Failures are kept in the frame,
+     * until it is handed out.
+     *
+     * @param skip decoded bytes that are skipped from here on. When the whole block is skipped, it is neither copied into
+     *             the frame nor translated.
+     */
+    private Frame decodeFrame(Frame frame, long skip) {
+        try {
+            ByteBuffer output = decodeBlock(skip);
+            if (skip > 0L && output.remaining() <= skip) {
+                frame.length = output.remaining();
+                frame.skipped();
+                return frame;
+            }
+
+            // the window (or the block) are overwritten by the next block, before this one is handed out
+            frame.length = output.remaining();
+            output.get(frame.data, 0, frame.length);
+            releaseHeldBlock();
+
+            DecompressLzx lzx = (DecompressLzx) this.decompressor;
+            frame.start(this.translationExecutor, lzx.getTranslationCursor(), lzx.getIntelFileSize());
+        } catch (Exception e) {
+            frame.fail(e);
+        }
+        return frame;
+    }
+
+    /**
+     * Decodes the next CFDATA record of the folder, and returns a view of the decoded data.
+     *
+     * @param skip decoded bytes that are skipped from here on. When the whole block is skipped, the view has its size, but
+     *             not its data.
+     */
+    private ByteBuffer decodeBlock(long skip) throws IOException, CabException {
+        ByteBuffer output;
+        int cbUncomp;
+        this.blocksLeft--;
+
+        if (this.speculating) {
+            return this.speculative.take();
+        }
+
+        if (this.readAhead != null) {
+            // held until now, because the output can be a view of its buffer
+            releaseHeldBlock();
+
+            CabReadAhead.Block block = this.readAhead.take();
+            this.heldBlock = block;
+
+            cbUncomp = block.record.getCbUncomp();
+            output = decompress(block.view, block.record.getCbData(), cbUncomp, skip);
+        }
+        else {
+            ByteBuffer input = readBlock();
+
+            cbUncomp = this.cfDataRecord.getCbUncomp();
+            output = decompress(input, this.cfDataRecord.getCbData(), cbUncomp, skip);
+        }
+
+        if (output == null) {
+            output = this.bytesView;
+            output.limit(cbUncomp);
+            output.position(0);
+        }
+        return output;
+    }
+
+    private ByteBuffer decompress(ByteBuffer input, int cbData, int cbUncomp, long skip) throws CabException {
+        if (cbUncomp <= skip) {
+            this.decompressor.skip(input, this.bytes, cbData, cbUncomp);
+            return null;
+        }
+        return this.decompressor.decompress(input, this.bytes, cbData, cbUncomp);
+    }
+
+    private void releaseHeldBlock() {
+        if (this.heldBlock != null) {
+            this.readAhead.release(this.heldBlock);
+            this.heldBlock = null;
+        }
+    }
+
+    /**
+     * Reads and verifies the next CFDATA record, and returns a view of its data. When the source can provide it, the view is
+     * taken directly from the source (for example, a memory mapped cabinet) without copying the data into the read buffer.
+     * Otherwise, the data is checksummed while it is read.
+     */
+    private ByteBuffer readBlock() throws IOException, CabException {
+        boolean verify = this.checksumPolicy.verifies(this.blockIndex++);
+        InputStream input = this.source != null ? this.source : this.inputStream;
+
+        this.cfDataRecord.readHeader(input, this.readBuffer.length);
+        int cbData = this.cfDataRecord.getCbData();
 
-        while (size > 0L) {
-            this.cfDataRecord.read(this.inputStream, this.readBuffer);
+        if (this.source != null) {
+            ByteBuffer view = this.source.slice(this.source.getCurrentPosition(), this.readBuffer.length);
+            if (view != null && view.limit() >= cbData + INPUT_PADDING) {
+                this.source.skip(cbData);
 
-            if (!this.cfDataRecord.validateCheckSum(this.readBuffer)) {
-                throw new CorruptCabException("Invalid CFDATA checksum");
+                if (verify && !this.cfDataRecord.validateCheckSum(view)) {
+                    throw new CorruptCabException("Invalid CFDATA checksum");
+                }
+                return view;
             }
+        }
+
+        if (!this.cfDataRecord.readData(input, this.readBuffer, this.readView, verify)) {
+            throw new CorruptCabException("Invalid CFDATA checksum");
+        }
+        return this.readView;
+    }
+
+    /**
+     * Moves the source to the first CFDATA record of the folder, and starts reading ahead if that was configured.
+     *
+     * @throws IllegalStateException if the decompressor was not created over a {@link CabSource}, the only kind of stream
+     *                               that knows where in the cabinet it is. Use {@link #initialize(int)} on other streams.
+     */
+    public void initialize(CabFolderEntry folder) throws IOException, CabException {
+        if (this.source == null) {
+            throw new IllegalStateException("Folders can only be started on a CabSource, not on " +
+                                            this.inputStream.getClass().getName());
+        }
 
-            this.decompressor.decompress(this.readBuffer, this.bytes, this.cfDataRecord.getCbData(), this.cfDataRecord.getCbUncomp());
-            this.uncompressedDataSize = this.cfDataRecord.getCbUncomp();
-            this.outputOffset = 0;
+        stopReadAhead();
+        this.source.seek(folder.getCoffCabStart());
+        initialize(folder.getCompressionMethod());
+        this.blocksLeft = folder.getCCFData();
 
-            if (this.uncompressedDataSize >= size) {
-                outputStream.write(this.bytes, this.outputOffset, (int) size);
-                this.outputOffset = (int) (this.outputOffset + size);
-                this.uncompressedDataSize -= size;
-                size = 0L;
-            } else {
-                outputStream.write(this.bytes, this.outputOffset, (int) this.uncompressedDataSize);
-                size -= this.uncompressedDataSize;
-                this.outputOffset = 0;
-                this.uncompressedDataSize = 0L;
+        if (this.speculativeExecutor != null && (folder.getCompressionMethod() & 0xF) == COMPRESSION_TYPE_MSZIP && folder.getCCFData() > 1) {
+            if (this.speculative == null || this.speculative.getBlocks() != Math.max(2, this.speculativeBlocks)) {
+                this.speculative = new CabSpeculativeZip(this.sizeOfBlockData, this.readBuffer.length, this.speculativeBlocks);
             }
+            this.speculative.start(this.source, folder.getCCFData(), this.checksumPolicy, this.speculativeExecutor);
+            this.speculating = true;
+        }
+        else if (this.readAheadExecutor != null && folder.getCCFData() > 0) {
+            CabReadAhead readAhead = new CabReadAhead(this.source, this.sizeOfBlockData, this.readBuffer.length,
+                                                      this.readAheadBlocks, folder.getCCFData(), this.checksumPolicy);
+            readAhead.start(this.readAheadExecutor);
+            this.readAhead = readAhead;
+        }
+
+        if (this.translationExecutor != null && this.decompressor instanceof DecompressLzx) {
+            if (this.frames == null) {
+                this.frames = new Frame[] {new Frame(this.bytes.length), new Frame(this.bytes.length)};
+            }
+            ((DecompressLzx) this.decompressor).setDeferredTranslation(true);
+            this.translating = true;
         }
     }
 
     public void initialize(int compressionMethod) throws CabException {
+        stopReadAhead();
+        stopTranslating();
+        stopSpeculating();
+        this.output = null;
         this.outputOffset = 0;
         this.uncompressedDataSize = 0L;
-        int type = compressionMethod & 0xF;
+        this.blockIndex = 0;
         int windowBits = (compressionMethod & 0x1F00) >>> 8;
 
         if (compressionMethod == this.compressionMethod) {
@@ -101,24 +452,190 @@ public final class CabDecompressor implements CabConstants {
             return;
         }
 
-        switch (type) {
-            case COMPRESSION_TYPE_NONE :
-                this.decompressor = new DecompressNone();
-                break;
-            case COMPRESSION_TYPE_MSZIP :
-                this.decompressor = new DecompressZip();
-                break;
-            case COMPRESSION_TYPE_LZX :
-                this.decompressor = new DecompressLzx();
-                break;
+        endDecompressor();
+        this.decompressor = DecompressorPool.take(compressionMethod, this.directWindow);
+        this.directDecompressor = this.directWindow;
 
-            case COMPRESSION_TYPE_QUANTUM :
-            default :
-                throw new CabException("Unknown compression type " + type);
+        // the same size for every type but Quantum, so usually the buffer of the previous folder fits
+        int readBufferSize = CabConstants.CAB_BLOCK_SIZE + this.decompressor.getMaxGrowth();
+        if (this.readBuffer == null || this.readBuffer.length != readBufferSize) {
+            this.readBuffer = new byte[readBufferSize];
+            this.readView = ByteBuffer.wrap(this.readBuffer).order(ByteOrder.LITTLE_ENDIAN);
         }
-
-        this.readBuffer = new byte[CabConstants.CAB_BLOCK_SIZE + this.decompressor.getMaxGrowth()];
-        this.decompressor.init(windowBits);
         this.compressionMethod = compressionMethod;
     }
+
+    private void stopReadAhead() {
+        if (this.readAhead != null) {
+            releaseHeldBlock();
+            this.readAhead.stop();
+            this.readAhead = null;
+        }
+    }
+
+    private void stopTranslating() {
+        if (this.translating) {
+            if (this.pendingFrame != null) {
+                // its buffer is reused by the next folder
+                this.pendingFrame.join();
+                this.pendingFrame = null;
+            }
+            ((DecompressLzx) this.decompressor).setDeferredTranslation(false);
+            this.translating = false;
+        }
+    }
+
+    private void stopSpeculating() {
+        if (this.speculating) {
+            this.speculative.stop();
+            this.speculating = false;
+        }
+    }
+
+    /**
+     * Hands the decompressor back to the {@link DecompressorPool}, for the next folder or cabinet that needs one.
+     */
+    private void endDecompressor() {
+        if (this.decompressor != null) {
+            DecompressorPool.release(this.compressionMethod, this.directDecompressor, this.decompressor);
+        }
+        this.decompressor = null;
+        this.compressionMethod = -1;
+    }
+
+    /**
+     * Stops reading ahead, translating and decoding speculatively, and hands the decompressor back to the pool. The source is not closed.
+     */
+    @Override
+    public void close() {
+        stopReadAhead();
+        stopTranslating();
+        stopSpeculating();
+        endDecompressor();
+    }
+
+    /**
+     * A decoded LZX block, copied out of the window so it can be translated while the next block is decoded.
+     */
+    private static final class Frame implements Runnable {
+        final byte[] data;
+        final ByteBuffer view;
+        int length;
+
+        /** whether the block is skipped as a whole, so the frame only has its size */
+        boolean skipped;
+
+        private int cursor;
+        private int fileSize;
+        private FutureTask<Void> task;
+        private Exception error;
+
+        Frame(int size) {
+            this.data = new byte[size];
+            this.view = ByteBuffer.wrap(this.data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * @param cursor position of the block in the decoded folder, or -1 if it needs no translation
+         */
+        void start(Executor executor, int cursor, int fileSize) {
+            this.error = null;
+            this.task = null;
+            this.skipped = false;
+
+            if (cursor >= 0) {
+                this.view.clear();
+                this.cursor = cursor;
+                this.fileSize = fileSize;
+                this.task = new FutureTask<Void>(this, null);
+                executor.execute(this.task);
+            }
+        }
+
+        void fail(Exception error) {
+            this.error = error;
+            this.task = null;
+            this.skipped = false;
+        }
+
+        void skipped() {
+            this.error = null;
+            this.task = null;
+            this.skipped = true;
+        }
+
+        /**
+         * Drops the translation of a frame that was decoded ahead, if the next {@code size} decoded bytes skip all of it.
+         */
+        void skip(long size) {
+            if (this.error == null && this.length <= size) {
+                // the buffer is decoded into again, so the translation must not run on
+                join();
+                skipped();
+            }
+        }
+
+        @Override
+        public void run() {
+            DecompressLzx.translate(this.view, this.length, this.cursor, this.fileSize);
+        }
+
+        /**
+         * Waits for the translation, and returns a view of the frame.
+         */
+        ByteBuffer await() throws IOException, CabException {
+            if (this.error instanceof IOException) {
+                throw (IOException) this.error;
+            }
+            if (this.error instanceof CabException) {
+                throw (CabException) this.error;
+            }
+            if (this.error != null) {
+                throw (RuntimeException) this.error;
+            }
+
+            if (this.task != null) {
+                try {
+                    this.task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the E8 translation");
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+
+            this.view.clear();
+            this.view.limit(this.length);
+            return this.view;
+        }
+
+        /**
+         * Waits for the translation to finish, whatever its outcome.
+         */
+        void join() {
+            if (this.task == null) {
+                return;
+            }
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
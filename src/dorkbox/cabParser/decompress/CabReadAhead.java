@@ -0,0 +1,232 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.decompress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import dorkbox.cabParser.CabException;
+import dorkbox.cabParser.CorruptCabException;
+import dorkbox.cabParser.structure.CfDataRecord;
+
+/**
+ * Reads the CFDATA blocks of one folder ahead of the decoder, into a ring of reusable buffers.
+ * <p>
+ * One task on an {@link Executor} reads blocks from the source and validates their checksums, and the decoder takes validated
+ * blocks in order with {@link #take()}, handing each one back with {@link #release(Block)} once it has been decoded. The task
+ * only ever waits for the decoder to hand back a block, so every block read from the source is at most {@code blocks} ahead
+ * of the decoder.
+ */
+final class CabReadAhead {
+    static final class Block {
+        final CfDataRecord record;
+        final byte[] data;
+        final ByteBuffer view;
+
+        boolean valid;
+        Exception error;
+
+        Block(int sizeOfBlockData, int maxData) {
+            this.record = new CfDataRecord(sizeOfBlockData);
+            this.data = new byte[maxData];
+            this.view = ByteBuffer.wrap(this.data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        Block(Exception error) {
+            this.record = null;
+            this.data = null;
+            this.view = null;
+            this.error = error;
+        }
+    }
+
+    /** marks the end of the folder (or the end of the reader, after {@link #stop()}) */
+    private static final Block END = new Block(null);
+
+    private final InputStream source;
+    private final int blockCount;
+    private final ChecksumPolicy checksumPolicy;
+
+    private final BlockingQueue<Block> free;
+    private final BlockingQueue<Block> ready;
+
+    private volatile boolean stopped;
+    private boolean finished;
+
+    /**
+     * @param source positioned on the first CFDATA record of the folder. It must not be used by anything else until the folder
+     *               has been read, or {@link #stop()} returned.
+     * @param blocks how many blocks can be buffered ahead of the decoder
+     * @param blockCount number of CFDATA records in the folder
+     */
+    CabReadAhead(InputStream source, int sizeOfBlockData, int maxData, int blocks, int blockCount, ChecksumPolicy checksumPolicy) {
+        this.source = source;
+        this.blockCount = blockCount;
+        this.checksumPolicy = checksumPolicy;
+
+        blocks = Math.max(1, blocks);
+        this.free = new ArrayBlockingQueue<Block>(blocks);
+        // room for every block, plus the end marker (and an error block), so putting into it never waits
+        this.ready = new ArrayBlockingQueue<Block>(blocks + 2);
+
+        for (int i = 0; i < blocks; i++) {
+            this.free.add(new Block(sizeOfBlockData, maxData));
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException if the executor did not take the reader, which then never touches the source
+     */
+    void start(Executor executor) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readBlocks();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.stopped = true;
+            this.finished = true;
+            throw e;
+        }
+    }
+
+    private void readBlocks() {
+        try {
+            for (int i = 0; i < this.blockCount; i++) {
+                Block block = this.free.take();
+                if (this.stopped) {
+                    break;
+                }
+
+                try {
+                    block.record.read(this.source, block.data);
+                    block.valid = !this.checksumPolicy.verifies(i) || block.record.validateCheckSum(block.view);
+                    block.error = null;
+                } catch (Exception e) {
+                    block.error = e;
+                    this.ready.add(block);
+                    break;
+                }
+                this.ready.add(block);
+            }
+        } catch (InterruptedException e) {
+            this.ready.add(new Block(new InterruptedIOException("Interrupted while reading ahead")));
+            Thread.currentThread().interrupt();
+        } finally {
+            this.ready.add(END);
+        }
+    }
+
+    /**
+     * Waits for the next validated block of the folder.
+     */
+    Block take() throws IOException, CabException {
+        if (this.finished) {
+            throw new CorruptCabException("Folder has fewer CFDATA records than its files need");
+        }
+
+        Block block;
+        try {
+            block = this.ready.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for CFDATA");
+        }
+
+        if (block == END) {
+            this.finished = true;
+            throw new CorruptCabException("Folder has fewer CFDATA records than its files need");
+        }
+
+        Exception error = block.error;
+        if (error != null) {
+            this.finished = true;
+            drain();
+
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            }
+            if (error instanceof CabException) {
+                throw (CabException) error;
+            }
+            throw (RuntimeException) error;
+        }
+
+        if (!block.valid) {
+            release(block);
+            throw new CorruptCabException("Invalid CFDATA checksum");
+        }
+        return block;
+    }
+
+    /**
+     * Gives a decoded block back to the reader.
+     */
+    void release(Block block) {
+        this.free.add(block);
+    }
+
+    /**
+     * Stops reading ahead, and waits until the reader does not touch the source anymore.
+     */
+    void stop() {
+        this.stopped = true;
+        if (!this.finished) {
+            this.finished = true;
+            drain();
+        }
+    }
+
+    /**
+     * Hands every block back to the reader (which then sees it was stopped) until it put the end marker.
+     */
+    private void drain() {
+        this.stopped = true;
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                Block block;
+                try {
+                    block = this.ready.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    continue;
+                }
+
+                if (block == END) {
+                    return;
+                }
+                if (block.record != null) {
+                    this.free.add(block);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.decompress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import dorkbox.cabParser.CabException;
+import dorkbox.cabParser.CorruptCabException;
+import dorkbox.cabParser.decompress.zip.DecompressZip;
+import dorkbox.cabParser.structure.CabConstants;
+import dorkbox.cabParser.structure.CfDataRecord;
+
+/**
+ * Decodes the CFDATA blocks of one MSZIP folder on several threads at once.
+ * <p>
+ * An MSZIP block copies from the block before it, so blocks decoded before the previous one is known keep markers where they
+ * do (see {@link DecompressZip#decompressSpeculative}). Blocks are read on the calling thread, checked and decoded on the
+ * executor, and {@link #take()} hands them out in order, once their markers were replaced in a single pass over the block.
+ */
+final class CabSpeculativeZip {
+    private static final class Slot implements Runnable {
+        final CfDataRecord record;
+        final byte[] data;
+        final ByteBuffer view;
+        final DecompressZip decoder = new DecompressZip();
+        final char[] decoded = new char[33028];
+
+        private boolean verify;
+        private FutureTask<Void> task;
+        private Exception error;
+
+        Slot(int sizeOfBlockData, int maxData) {
+            this.record = new CfDataRecord(sizeOfBlockData);
+            this.data = new byte[maxData];
+            this.view = ByteBuffer.wrap(this.data).order(ByteOrder.LITTLE_ENDIAN);
+            this.decoder.init(15);
+        }
+
+        /**
+         * Reads the next CFDATA record, and starts decoding it. Failures are kept in the slot, until it is taken.
+         */
+        void start(InputStream source, boolean verify, Executor executor) {
+            this.error = null;
+            this.task = null;
+
+            try {
+                this.record.read(source, this.data);
+            } catch (Exception e) {
+                this.error = e;
+                return;
+            }
+
+            this.verify = verify;
+            this.task = new FutureTask<Void>(this, null);
+            executor.execute(this.task);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (this.verify && !this.record.validateCheckSum(this.view)) {
+                    throw new CorruptCabException("Invalid CFDATA checksum");
+                }
+                if (this.record.getCbUncomp() > CabConstants.CAB_BLOCK_SIZE) {
+                    // it is resolved into a block sized buffer
+                    throw new CorruptCabException("Corrupt cfData record");
+                }
+                this.decoder.decompressSpeculative(this.view, this.decoded, this.record.getCbData(), this.record.getCbUncomp());
+            } catch (CabException e) {
+                this.error = e;
+            }
+        }
+
+        /**
+         * Waits for the block to be decoded.
+         */
+        void await() throws IOException, CabException {
+            if (this.task != null) {
+                try {
+                    this.task.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for MSZIP blocks");
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+
+            Exception error = this.error;
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            }
+            if (error instanceof CabException) {
+                throw (CabException) error;
+            }
+            if (error != null) {
+                throw (RuntimeException) error;
+            }
+        }
+
+        /**
+         * Waits for the block to be decoded, whatever the outcome.
+         */
+        void join() {
+            if (this.task == null) {
+                return;
+            }
+
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+            this.task = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final Slot[] slots;
+
+    /** the last block handed out, and the one before it, which it was resolved against */
+    private byte[] current = new byte[CabConstants.CAB_BLOCK_SIZE];
+    private byte[] previous = new byte[CabConstants.CAB_BLOCK_SIZE];
+    private ByteBuffer currentView = ByteBuffer.wrap(this.current);
+    private ByteBuffer previousView = ByteBuffer.wrap(this.previous);
+
+    private InputStream source;
+    private Executor executor;
+    private ChecksumPolicy checksumPolicy;
+    private int blockCount;
+
+    /** blocks read from the source, and handed out by {@link #take()} */
+    private int started;
+    private int taken;
+
+    /**
+     * @param blocks how many blocks are decoded at the same time
+     */
+    CabSpeculativeZip(int sizeOfBlockData, int maxData, int blocks) {
+        this.slots = new Slot[Math.max(2, blocks)];
+        for (int i = 0; i < this.slots.length; i++) {
+            this.slots[i] = new Slot(sizeOfBlockData, maxData);
+        }
+    }
+
+    int getBlocks() {
+        return this.slots.length;
+    }
+
+    /**
+     * @param source positioned on the first CFDATA record of the folder
+     * @param blockCount number of CFDATA records in the folder
+     */
+    void start(InputStream source, int blockCount, ChecksumPolicy checksumPolicy, Executor executor) {
+        this.source = source;
+        this.blockCount = blockCount;
+        this.checksumPolicy = checksumPolicy;
+        this.executor = executor;
+        this.started = 0;
+        this.taken = 0;
+    }
+
+    /**
+     * Waits for the next block of the folder, and returns a view of its decoded data. The view is valid until the next call.
+     */
+    ByteBuffer take() throws IOException, CabException {
+        if (this.taken >= this.blockCount) {
+            throw new CorruptCabException("Folder has fewer CFDATA records than its files need");
+        }
+
+        // every slot but the one of the block handed out last is being decoded
+        Slot[] slots = this.slots;
+        while (this.started < this.blockCount && this.started - this.taken < slots.length) {
+            slots[this.started % slots.length].start(this.source, this.checksumPolicy.verifies(this.started), this.executor);
+            this.started++;
+        }
+
+        Slot slot = slots[this.taken % slots.length];
+        slot.await();
+        this.taken++;
+
+        byte[] data = this.previous;
+        ByteBuffer view = this.previousView;
+        this.previous = this.current;
+        this.previousView = this.currentView;
+        this.current = data;
+        this.currentView = view;
+
+        int length = slot.record.getCbUncomp();
+        DecompressZip.resolve(slot.decoded, length, this.previous, data);
+
+        view.limit(length);
+        view.position(0);
+        return view;
+    }
+
+    /**
+     * Waits until no block is decoded anymore. The source is not read after this returns.
+     */
+    void stop() {
+        for (Slot slot : this.slots) {
+            slot.join();
+        }
+        this.source = null;
+        this.executor = null;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.decompress;
+
+/**
+ * Which CFDATA checksums {@link CabDecompressor} verifies.
+ */
+public enum ChecksumPolicy {
+    /** every block */
+    ALWAYS,
+
+    /** the first block of every folder, then every 16th block */
+    SAMPLED,
+
+    /** none, for trusted sources */
+    NEVER;
+
+    private static final int SAMPLE_INTERVAL = 16;
+
+    /**
+     * @param block index of the block in its folder
+     */
+    public boolean verifies(int block) {
+        switch (this) {
+            case ALWAYS :
+                return true;
+            case SAMPLED :
+                return block % SAMPLE_INTERVAL == 0;
+            default :
+                return false;
+        }
+    }
+}
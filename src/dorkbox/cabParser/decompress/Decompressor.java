@@ -15,13 +15,30 @@
  */
 package dorkbox.cabParser.decompress;
 
+import java.nio.ByteBuffer;
+
 import dorkbox.cabParser.CabException;
 import dorkbox.cabParser.structure.CabConstants;
 
 
 public interface Decompressor extends CabConstants {
     void init(int windowBits) throws CabException;
-    void decompress(byte[] inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException;
+    /**
+     * @param inputBytes little-endian view of the compressed block, starting at index 0. Bytes past inputLength (up to the
+     *                   limit) may be read as look-ahead, but are not part of the block.
+     *
+     * @return view of the decoded block, from its position to its limit, when the decoder can hand out its own memory (for
+     *         example, the LZX window). It is only valid until the next call. {@code null} when the block was decoded into
+     *         {@code outputBytes}, starting at index 0.
+     */
+    ByteBuffer decompress(ByteBuffer inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException;
+    /**
+     * Decodes a block that is not wanted, only to keep the state of the decoder for the next block. Decoders can leave out
+     * what is only needed to hand the block out, for example the E8 translation of LZX.
+     */
+    default void skip(ByteBuffer inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
+        decompress(inputBytes, outputBytes, inputLength, outputLength);
+    }
     int getMaxGrowth();
     void reset(int windowBits) throws CabException;
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.decompress;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dorkbox.cabParser.CabException;
+import dorkbox.cabParser.decompress.lzx.DecompressLzx;
+import dorkbox.cabParser.decompress.none.DecompressNone;
+import dorkbox.cabParser.decompress.quantum.DecompressQuantum;
+import dorkbox.cabParser.decompress.zip.DecompressInflater;
+import dorkbox.cabParser.decompress.zip.DecompressZip;
+import dorkbox.cabParser.structure.CabConstants;
+
+/**
+ * Process wide pool of decoders that are ready to use, keyed by compression type and window size, so that folders and
+ * cabinets opened one after the other reuse the windows and tables of the ones before, instead of allocating them again.
+ * <p>
+ * A decoder is only ever held by one {@link CabDecompressor} at a time. At most a few idle ones are kept for every key, and
+ * all idle ones together hold at most {@link #setIdleBudget(long) a budget} of window memory. {@link #clear()} drops them.
+ */
+public final class DecompressorPool implements CabConstants {
+    private static final int IDLE_PER_KEY = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** window memory of all idle decoders, and how much of it may be kept */
+    private static final AtomicLong IDLE_BYTES = new AtomicLong();
+    private static volatile long idleBudget = 32L * 1024 * 1024;
+
+    /** part of the key of LZX decoders with an off-heap window */
+    private static final int DIRECT_WINDOW = 0x10000;
+
+    private static final ConcurrentMap<Integer, BlockingQueue<Decompressor>> IDLE = new ConcurrentHashMap<Integer, BlockingQueue<Decompressor>>();
+
+    private DecompressorPool() {
+    }
+
+    /**
+     * @param directWindow whether an LZX decoder keeps its window off the heap
+     *
+     * @return a decoder for the compression method (as found in the CFFOLDER), ready for the first block of a folder
+     */
+    static Decompressor take(int compressionMethod, boolean directWindow) throws CabException {
+        int windowBits = (compressionMethod & 0x1F00) >>> 8;
+
+        BlockingQueue<Decompressor> idle = IDLE.get(key(compressionMethod, directWindow));
+        Decompressor decompressor = idle != null ? idle.poll() : null;
+        if (decompressor != null) {
+            IDLE_BYTES.addAndGet(-footprint(compressionMethod));
+            decompressor.reset(windowBits);
+            return decompressor;
+        }
+
+        int type = compressionMethod & 0xF;
+        switch (type) {
+            case COMPRESSION_TYPE_NONE :
+                decompressor = new DecompressNone();
+                break;
+            case COMPRESSION_TYPE_MSZIP :
+                if (DecompressInflater.isAvailable()) {
+                    decompressor = new DecompressInflater();
+                }
+                else {
+                    decompressor = new DecompressZip();
+                }
+                break;
+            case COMPRESSION_TYPE_LZX :
+                decompressor = new DecompressLzx(directWindow);
+                break;
+
+            case COMPRESSION_TYPE_QUANTUM :
+                decompressor = new DecompressQuantum();
+                break;
+
+            default :
+                throw new CabException("Unknown compression type " + type);
+        }
+
+        decompressor.init(windowBits);
+        return decompressor;
+    }
+
+    /**
+     * Hands a decoder back once its folder is done. It must not be used by the caller afterwards, and is dropped if keeping
+     * it would go over the budget.
+     */
+    static void release(int compressionMethod, boolean directWindow, Decompressor decompressor) {
+        Integer key = key(compressionMethod, directWindow);
+        BlockingQueue<Decompressor> idle = IDLE.get(key);
+        if (idle == null) {
+            BlockingQueue<Decompressor> queue = new ArrayBlockingQueue<Decompressor>(IDLE_PER_KEY);
+            idle = IDLE.putIfAbsent(key, queue);
+            if (idle == null) {
+                idle = queue;
+            }
+        }
+
+        long footprint = footprint(compressionMethod);
+        if (IDLE_BYTES.addAndGet(footprint) > idleBudget || !idle.offer(decompressor)) {
+            IDLE_BYTES.addAndGet(-footprint);
+            end(decompressor);
+        }
+    }
+
+    /**
+     * How much window memory idle decoders may hold all together, 32 MB by default. {@code 0} keeps no decoder but the ones
+     * without a window. A smaller budget applies as decoders are handed back, call {@link #clear()} to apply it right away.
+     */
+    public static void setIdleBudget(long bytes) {
+        idleBudget = bytes;
+    }
+
+    /**
+     * Drops all idle decoders, frees the native memory of the MSZIP ones, and leaves the windows (including the direct
+     * windows of LZX) to the garbage collector. Decoders that are in use are kept when they are handed back, as usual.
+     */
+    public static void clear() {
+        for (Map.Entry<Integer, BlockingQueue<Decompressor>> entry : IDLE.entrySet()) {
+            long footprint = footprint(entry.getKey());
+            Decompressor decompressor;
+            while ((decompressor = entry.getValue().poll()) != null) {
+                IDLE_BYTES.addAndGet(-footprint);
+                end(decompressor);
+            }
+        }
+    }
+
+    /**
+     * @return bytes of window (and history) a decoder for the compression method (or key) keeps between folders
+     */
+    private static long footprint(int compressionMethod) {
+        int windowBits = (compressionMethod & 0x1F00) >>> 8;
+        switch (compressionMethod & 0xF) {
+            case COMPRESSION_TYPE_MSZIP :
+                return 32768;
+            case COMPRESSION_TYPE_LZX :
+                return 1L << windowBits;
+            case COMPRESSION_TYPE_QUANTUM :
+                return Math.max(1L << windowBits, 32768);
+            default :
+                return 0;
+        }
+    }
+
+    private static void end(Decompressor decompressor) {
+        if (decompressor instanceof DecompressInflater) {
+            ((DecompressInflater) decompressor).end();
+        }
+    }
+
+    /**
+     * The Quantum compression level does not change the decoder, so only type, window size and an off-heap LZX window are part of the key.
+     */
+    private static Integer key(int compressionMethod, boolean directWindow) {
+        int key = compressionMethod & 0x1F0F;
+        if (directWindow && (compressionMethod & 0xF) == COMPRESSION_TYPE_LZX) {
+            key |= DIRECT_WINDOW;
+        }
+        return key;
+    }
+}
@@ -15,13 +15,38 @@
  */
 package dorkbox.cabParser.decompress.lzx;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 import dorkbox.cabParser.CabException;
 import dorkbox.cabParser.CorruptCabException;
 import dorkbox.cabParser.decompress.Decompressor;
 
 public final class DecompressLzx implements Decompressor, LZXConstants {
-    private int[]   extraBits = new int[51];
-    private int[]   positionBase = new int[51];
+    private static final int[] EXTRA_BITS = new int[51];
+    private static final int[] POSITION_BASE = new int[51];
+
+    static {
+        int i = 4;
+        int j = 1;
+        do {
+            EXTRA_BITS[i] = j;
+            EXTRA_BITS[i + 1] = j;
+            i += 2;
+            j++;
+        } while (j <= 16);
+
+        do {
+            EXTRA_BITS[i++] = 17;
+        } while (i < 51);
+
+        i = -2;
+        for (j = 0; j < EXTRA_BITS.length; j++) {
+            POSITION_BASE[j] = i;
+            i += 1 << EXTRA_BITS[j];
+        }
+    }
 
     private DecompressLzxTree   mainTree;
     private DecompressLzxTree   lengthTree;
@@ -42,6 +67,13 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
     private int     R2;
 
     private byte[]  localWindow;
+    private ByteBuffer windowView;
+
+    /** off-heap window, when only the frame being decoded is kept in {@link #localWindow} */
+    private boolean directWindow;
+    private ByteBuffer history;
+    /** window position of index 0 of {@link #localWindow}, while a frame is decoded into it */
+    private int     frameBase;
 
     private int     windowSize;
     private boolean readHeader;
@@ -50,40 +82,54 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
     private int     index;
     private int     length;
 
-    private byte[]  inputBytes;
+    private ByteBuffer inputBytes;
 
     private boolean abort;
 
-    int             bitsLeft;
-
-    private int     blockAlignOffset;
+    /** bits not read yet, starting at the most significant bit */
+    long            bitBuffer;
+    /** number of valid bits in {@link #bitBuffer} */
+    int             bitCount;
     private int     intelFileSize;
     private int     intelCursorPos;
 
     private boolean intelStarted;
     private int     framesRead;
 
-    public DecompressLzx() {
-        int i = 4;
-        int j = 1;
-        do {
-            this.extraBits[i] = j;
-            this.extraBits[i + 1] = j;
-            i += 2;
-            j++;
-        } while (j <= 16);
+    private ByteBuffer outputView;
+    private boolean deferredTranslation;
+    private int     translationCursor = -1;
 
-        do {
-            this.extraBits[i++] = 17;
-        } while (i < 51);
+    private int     mainTableBits;
+    private int     lengthTableBits;
 
-        i = -2;
-        for (j = 0; j < this.extraBits.length; j++) {
-            this.positionBase[j] = i;
-            i += 1 << this.extraBits[j];
+    public DecompressLzx() {
+        this.mainTableBits = MAIN_TABLE_BITS;
+        this.lengthTableBits = LENGTH_TABLE_BITS;
+        this.windowSize = -1;
+    }
+
+    /**
+     * @param mainTableBits width of the lookup table of the main tree. Codes longer than this (up to 16 bits) are decoded by
+     *                      walking a tree, so wider tables trade memory and setup time for fewer walks.
+     * @param lengthTableBits width of the lookup table of the length tree
+     */
+    public DecompressLzx(int mainTableBits, int lengthTableBits) {
+        this();
+        if (mainTableBits < 1 || mainTableBits > 16 || lengthTableBits < 1 || lengthTableBits > 16) {
+            throw new IllegalArgumentException("Table widths must be between 1 and 16 bits");
         }
+        this.mainTableBits = mainTableBits;
+        this.lengthTableBits = lengthTableBits;
+    }
 
-        this.windowSize = -1;
+    /**
+     * @param directWindow keeps the window (up to 2 MB) in a direct buffer, and only the frame being decoded on the heap. Large
+     *                     windows then do not end up as humongous objects, at the cost of copying every frame once more.
+     */
+    public DecompressLzx(boolean directWindow) {
+        this();
+        this.directWindow = directWindow;
     }
 
     @Override
@@ -94,20 +140,56 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
     }
 
     @Override
-    public void decompress(byte[] inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
+    public ByteBuffer decompress(ByteBuffer inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
         this.abort = false;
         this.index = 0;
         this.inputBytes = inputBytes;
-        this.length = inputBytes.length;
+        this.length = inputBytes.limit();
 
         initBitStream();
 
+        if (this.history != null) {
+            if (outputLength > CAB_BLOCK_SIZE) {
+                throw new CorruptCabException();
+            }
+            this.windowPosition &= this.windowMask;
+            this.frameBase = this.windowPosition;
+        }
+
         int decompressedOutputLength = decompressLoop(outputLength);
-        System.arraycopy(this.localWindow, this.outputPosition, outputBytes, 0, decompressedOutputLength);
 
+        if (this.history != null) {
+            // the frame is added to the window, and handed out from the heap
+            this.history.position(this.frameBase);
+            this.history.put(this.localWindow, 0, decompressedOutputLength);
+            this.outputPosition = 0;
+        }
+
+        this.translationCursor = -1;
         if (this.framesRead++ < E8_DISABLE_THRESHOLD && this.intelFileSize != 0) {
-            decodeIntelBlock(outputBytes, decompressedOutputLength);
+            int cursorPos = this.intelCursorPos;
+            this.intelCursorPos += decompressedOutputLength;
+
+            if (decompressedOutputLength > 10 && this.intelStarted) {
+                if (this.deferredTranslation) {
+                    this.translationCursor = cursorPos;
+                }
+                else {
+                    // the window has to stay untranslated, so translate a copy
+                    System.arraycopy(this.localWindow, this.outputPosition, outputBytes, 0, decompressedOutputLength);
+                    if (this.outputView == null || this.outputView.array() != outputBytes) {
+                        this.outputView = ByteBuffer.wrap(outputBytes).order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                    translate(this.outputView, decompressedOutputLength, cursorPos, this.intelFileSize);
+                    return null;
+                }
+            }
         }
+
+        // nothing to translate, so the frame is handed out straight from the window
+        this.windowView.limit(this.outputPosition + decompressedOutputLength);
+        this.windowView.position(this.outputPosition);
+        return this.windowView;
     }
 
     @Override
@@ -125,12 +207,19 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
         else {
             maybeReset();
             int i = NUM_CHARS + this.mainElements * ALIGNED_NUM_ELEMENTS;
-            this.localWindow = new byte[this.wndSize + 261];
+            if (this.directWindow) {
+                this.history = ByteBuffer.allocateDirect(this.wndSize);
+                this.localWindow = new byte[CAB_BLOCK_SIZE + 261];
+            }
+            else {
+                this.localWindow = new byte[this.wndSize + 261];
+            }
+            this.windowView = ByteBuffer.wrap(this.localWindow);
 
-            this.preTree = new DecompressLzxTree(PRETREE_NUM_ELEMENTS, ALIGNED_NUM_ELEMENTS, this, null);
-            this.mainTree = new DecompressLzxTree(i, 9, this, this.preTree);
-            this.lengthTree = new DecompressLzxTree(SECONDARY_NUM_ELEMENTS, 6, this, this.preTree);
-            this.alignedTree = new DecompressLzxTree(ALIGNED_NUM_ELEMENTS, NUM_PRIMARY_LENGTHS, this, this.preTree);
+            this.preTree = new DecompressLzxTree(PRETREE_NUM_ELEMENTS, PRETREE_TABLE_BITS, this, null);
+            this.mainTree = new DecompressLzxTree(i, this.mainTableBits, this, this.preTree);
+            this.lengthTree = new DecompressLzxTree(SECONDARY_NUM_ELEMENTS, this.lengthTableBits, this, this.preTree);
+            this.alignedTree = new DecompressLzxTree(ALIGNED_NUM_ELEMENTS, ALIGNED_TABLE_BITS, this, this.preTree);
         }
 
         this.windowSize = windowBits;
@@ -212,7 +301,12 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
                 else if (this.blockType == BLOCKTYPE_UNCOMPRESSED) {
                     // because we can't assume otherwise
                     this.intelStarted = true;
-                    this.index -= 2; // align the bitstream
+
+                    // align the bitstream: skip the rest of the current 16-bit word (or all of it, when nothing of it was
+                    // read yet), and give back the words that were only buffered
+                    this.index -= ((this.bitCount + 15) >>> 4) * 2 - 2;
+                    this.bitBuffer = 0L;
+                    this.bitCount = 0;
 
 
                     if (this.index < 0 || this.index + 12 >= this.length) {
@@ -245,10 +339,6 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
             if (this.blockRemaining == 0) {
                 this.blocksRemaining = 0;
             }
-
-            if (bytesToRead == 0 && this.blockAlignOffset != 16) {
-                readNumberBits(this.blockAlignOffset);
-            }
         }
 
         if (lastWindowPosition != i) {
@@ -264,48 +354,74 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
         return lastWindowPosition;
     }
 
-    @SuppressWarnings("NumericCastThatLosesPrecision")
-    private void decodeIntelBlock(byte[] bytes, int outLength) {
-        if (outLength <= 10 || !this.intelStarted) {
-            this.intelCursorPos += outLength;
-            return;
+    /**
+     * Decodes the frame into the window, like a deferred translation, but does not ask for the translation.
+     */
+    @Override
+    public void skip(ByteBuffer inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
+        boolean deferredTranslation = this.deferredTranslation;
+        this.deferredTranslation = true;
+        try {
+            decompress(inputBytes, outputBytes, inputLength, outputLength);
+        } finally {
+            this.deferredTranslation = deferredTranslation;
+            this.translationCursor = -1;
         }
+    }
 
-        int cursorPos = this.intelCursorPos;
-        int fileSize = this.intelFileSize;
-        int abs_off = 0;
-
-        int adjustedOutLength = outLength - 10;
-
-        int dataIndex = 0;
-        int cursor_pos = cursorPos + adjustedOutLength;
-
-        while (cursorPos < cursor_pos) {
-            while (bytes[dataIndex++] == -24) {
-                if (cursorPos >= cursor_pos) {
-                    break;
+    /**
+     * Undoes the E8 call translation of a frame, which starts at index 0 of the little-endian {@code frame}. Calls are found
+     * eight bytes at a time: in a word XOR-ed with {@code 0xE8} bytes, the lowest zero byte sets the lowest high bit of
+     * {@code (word - 0x01..01) & ~word & 0x80..80} (the higher ones can also be set by the borrow).
+     *
+     * @param cursorPos position of the frame in the decoded folder
+     * @param fileSize translation size, from the header of the folder
+     */
+    public static void translate(ByteBuffer frame, int length, int cursorPos, int fileSize) {
+        int end = length - 10;
+        int i = 0;
+
+        while (i < end) {
+            if (i + 8 <= end) {
+                long word = frame.getLong(i) ^ 0xE8E8E8E8E8E8E8E8L;
+                long found = (word - 0x0101010101010101L) & ~word & 0x8080808080808080L;
+                if (found == 0L) {
+                    i += 8;
+                    continue;
                 }
+                i += Long.numberOfTrailingZeros(found) >>> 3;
+            }
+            else if (frame.get(i) != (byte) 0xE8) {
+                i++;
+                continue;
+            }
 
-                abs_off = bytes[dataIndex] & 0xFF |
-                        (bytes[dataIndex + 1] & 0xFF) << 8 |
-                        (bytes[dataIndex + 2] & 0xFF) << 16 |
-                        (bytes[dataIndex + 3] & 0xFF) << 24;
-
-                if ((abs_off >= -cursorPos) && (abs_off < fileSize)) {
-                   int rel_off = (abs_off >= 0) ? abs_off - cursorPos : abs_off + fileSize;
-                   bytes[dataIndex] = (byte) (rel_off & 0xFF);
-                   bytes[dataIndex + 1] = (byte) (rel_off >>> 8 & 0xFF);
-                   bytes[dataIndex + 2] = (byte) (rel_off >>> 16 & 0xFF);
-                   bytes[dataIndex + 3] = (byte) (rel_off >>> 24 & 0xFF);
-                 }
-
-                dataIndex += 4;
-                cursorPos += 5;
+            int position = cursorPos + i;
+            int absoluteOffset = frame.getInt(i + 1);
+            if (absoluteOffset >= -position && absoluteOffset < fileSize) {
+                frame.putInt(i + 1, absoluteOffset >= 0 ? absoluteOffset - position : absoluteOffset + fileSize);
             }
-            cursorPos++;
+            i += 5;
         }
+    }
+
+    /**
+     * Leaves the E8 translation of frames to the caller, so it can run on another thread than the decoder. After each frame,
+     * {@link #getTranslationCursor()} tells whether a copy of it has to be passed to {@link #translate(ByteBuffer, int, int, int)}.
+     */
+    public void setDeferredTranslation(boolean deferredTranslation) {
+        this.deferredTranslation = deferredTranslation;
+    }
+
+    /**
+     * @return position of the last frame in the decoded folder, or -1 if it needs no translation
+     */
+    public int getTranslationCursor() {
+        return this.translationCursor;
+    }
 
-        this.intelCursorPos += outLength;
+    public int getIntelFileSize() {
+        return this.intelFileSize;
     }
 
     private void decompressBlockActions(int bytesToRead) throws CabException {
@@ -315,48 +431,69 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
             throw new CabException();
         }
 
+        // with an off-heap window, the decoders work on positions in the frame. Only the last frame of a folder can be short,
+        // so frames never wrap around the end of the window
+        int base = this.frameBase;
+        if (this.windowPosition < base) {
+            throw new CorruptCabException();
+        }
+        this.windowPosition -= base;
+
         switch (this.blockType) {
             case BLOCKTYPE_UNCOMPRESSED :
                 uncompressedAlgo(bytesToRead);
-                return;
+                break;
             case BLOCKTYPE_ALIGNED :
                 alignedAlgo(bytesToRead);
-                return;
+                break;
             case BLOCKTYPE_VERBATIM :
                 verbatimAlgo(bytesToRead);
-                return;
+                break;
             default :
                 throw new CorruptCabException();
         }
-    }
 
+        this.windowPosition += base;
+    }
 
-    void readNumberBits(int numBits) {
-        this.bitsLeft <<= numBits;
-        this.blockAlignOffset -= numBits;
 
-        if (this.blockAlignOffset <= 0) {
-            this.bitsLeft |= readShort() << -this.blockAlignOffset;
-            this.blockAlignOffset += 16;
+    /**
+     * Makes sure at least {@code numBits} (up to 48) bits are buffered. Past the end of the input, zeros are read instead and
+     * the frame is aborted.
+     */
+    void ensureBits(int numBits) {
+        while (this.bitCount < numBits) {
+            this.bitBuffer |= (long) readShort() << 48 - this.bitCount;
+            this.bitCount += 16;
         }
     }
 
+    void removeBits(int numBits) {
+        this.bitBuffer <<= numBits;
+        this.bitCount -= numBits;
+    }
+
     private void initBitStream() {
-        if (this.blockType != BLOCKTYPE_UNCOMPRESSED) {
-            this.bitsLeft = readShort() << 16 | readShort();
-            this.blockAlignOffset = 16;
-        }
+        this.bitBuffer = 0L;
+        this.bitCount = 0;
     }
 
     private void maybeReset() {
         this.mainElements = 4;
         int i = 4;
         do {
-            i += 1 << this.extraBits[this.mainElements];
+            i += 1 << EXTRA_BITS[this.mainElements];
             this.mainElements++;
         } while (i < this.wndSize);
     }
 
+    /*
+     * The decode loops keep the bit buffer in locals, and refill it 32 bits at a time (two 16-bit words, the first one in the
+     * high half) whenever no more than 32 bits are left. That is enough for a main and a length code (16 bits each), or for
+     * the extra bits of an offset (up to 17 bits, plus a 7-bit aligned code), so every refill is followed by at most two
+     * decodes without checking again.
+     */
+
     @SuppressWarnings("NumericCastThatLosesPrecision")
     private void verbatimAlgo(int this_run) throws CorruptCabException {
         int i = this.windowPosition;
@@ -366,14 +503,41 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
         int r1 = this.R1;
         int r2 = this.R2;
 
-        int[] arrayOfInt1 = this.extraBits;
-        int[] arrayOfInt2 = this.positionBase;
+        int[] arrayOfInt1 = EXTRA_BITS;
+        int[] arrayOfInt2 = POSITION_BASE;
 
         DecompressLzxTree mainTree = this.mainTree;
         DecompressLzxTree lengthTree = this.lengthTree;
+        int[] mainTable = mainTree.table;
+        int mainShift = mainTree.shift;
+        int[] lengthTable = lengthTree.table;
+        int lengthShift = lengthTree.shift;
+
+        ByteBuffer input = this.inputBytes;
+        int in = this.index;
+        int end = this.length - 4;
+        long bits = this.bitBuffer;
+        int count = this.bitCount;
 
         while (this_run > 0) {
-            int main_element = mainTree.decodeElement();
+            if (count <= 32) {
+                if (in > end) {
+                    throw new CorruptCabException();
+                }
+                bits |= (Integer.rotateLeft(input.getInt(in), 16) & 0xFFFFFFFFL) << 32 - count;
+                in += 4;
+                count += 32;
+            }
+
+            int main_element = mainTable[(int) (bits >>> mainShift)];
+            if (main_element < 0) {
+                main_element = mainTree.decodeLong(bits, main_element);
+            }
+            int codeLength = main_element & CODE_LENGTH_MASK;
+            bits <<= codeLength;
+            count -= codeLength;
+            main_element >>>= CODE_LENGTH_BITS;
+
             if (main_element < NUM_CHARS) {
                 windowPosition[i++] = (byte) main_element;
                 this_run--;
@@ -384,7 +548,14 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
 
                 int match_length = main_element & NUM_PRIMARY_LENGTHS;
                 if (match_length == NUM_PRIMARY_LENGTHS) {
-                    match_length += lengthTree.decodeElement();
+                    int length_element = lengthTable[(int) (bits >>> lengthShift)];
+                    if (length_element < 0) {
+                        length_element = lengthTree.decodeLong(bits, length_element);
+                    }
+                    codeLength = length_element & CODE_LENGTH_MASK;
+                    bits <<= codeLength;
+                    count -= codeLength;
+                    match_length += length_element >>> CODE_LENGTH_BITS;
                 }
 
                 int matchOffset = main_element >>> 3;
@@ -401,7 +572,20 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
                 else if (matchOffset > 2) {
                     // not repeated offset
                     if (matchOffset > 3) {
-                        matchOffset = verbatimAlgo2(arrayOfInt1[matchOffset]) + arrayOfInt2[matchOffset];
+                        if (count <= 32) {
+                            if (in > end) {
+                                throw new CorruptCabException();
+                            }
+                            bits |= (Integer.rotateLeft(input.getInt(in), 16) & 0xFFFFFFFFL) << 32 - count;
+                            in += 4;
+                            count += 32;
+                        }
+
+                        int extra = arrayOfInt1[matchOffset];
+                        int verbatim = (int) (bits >>> 64 - extra);
+                        bits <<= extra;
+                        count -= extra;
+                        matchOffset = verbatim + arrayOfInt2[matchOffset];
                     } else {
                         matchOffset = 1;
                     }
@@ -418,11 +602,7 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
 
                 this_run -= match_length;
 
-                while (match_length > 0) {
-                    windowPosition[i] = windowPosition[i - matchOffset & mask];
-                    i++;
-                    match_length--;
-                }
+                i = copyMatch(windowPosition, i, matchOffset, match_length, mask);
             }
         }
 
@@ -430,31 +610,16 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
             throw new CorruptCabException();
         }
 
+        this.index = in;
+        this.bitBuffer = bits;
+        this.bitCount = count;
+
         this.R0 = r0;
         this.R1 = r1;
         this.R2 = r2;
         this.windowPosition = i;
     }
 
-    private int verbatimAlgo2(int position) {
-        int i = this.bitsLeft >>> 32 - position;
-
-        this.bitsLeft <<= position;
-        this.blockAlignOffset -= position;
-
-        if (this.blockAlignOffset <= 0) {
-            this.bitsLeft |= readShort() << -this.blockAlignOffset;
-            this.blockAlignOffset += 16;
-
-            if (this.blockAlignOffset <= 0) {
-                this.bitsLeft |= readShort() << -this.blockAlignOffset;
-                this.blockAlignOffset += 16;
-            }
-        }
-
-        return i;
-    }
-
     @SuppressWarnings("NumericCastThatLosesPrecision")
     private void alignedAlgo(int this_run) throws CorruptCabException {
         int windowPos = this.windowPosition;
@@ -464,12 +629,43 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
         int r1 = this.R1;
         int r2 = this.R2;
 
+        DecompressLzxTree mainTree = this.mainTree;
+        DecompressLzxTree lengthTree = this.lengthTree;
+        DecompressLzxTree alignedTree = this.alignedTree;
+        int[] mainTable = mainTree.table;
+        int mainShift = mainTree.shift;
+        int[] lengthTable = lengthTree.table;
+        int lengthShift = lengthTree.shift;
+        int[] alignedTable = alignedTree.table;
+        int alignedShift = alignedTree.shift;
+
+        ByteBuffer input = this.inputBytes;
+        int in = this.index;
+        int end = this.length - 4;
+        long bits = this.bitBuffer;
+        int count = this.bitCount;
+
         while (this_run > 0) {
-            int mainElement = this.mainTree.decodeElement();
+            if (count <= 32) {
+                if (in > end) {
+                    throw new CorruptCabException();
+                }
+                bits |= (Integer.rotateLeft(input.getInt(in), 16) & 0xFFFFFFFFL) << 32 - count;
+                in += 4;
+                count += 32;
+            }
+
+            int mainElement = mainTable[(int) (bits >>> mainShift)];
+            if (mainElement < 0) {
+                mainElement = mainTree.decodeLong(bits, mainElement);
+            }
+            int codeLength = mainElement & CODE_LENGTH_MASK;
+            bits <<= codeLength;
+            count -= codeLength;
+            mainElement >>>= CODE_LENGTH_BITS;
 
             if (mainElement < NUM_CHARS) {
-                window[windowPos] = (byte) mainElement;
-                windowPos = windowPos + 1 & mask;
+                window[windowPos++] = (byte) mainElement;
                 this_run--;
             }
             /* is a match */
@@ -478,27 +674,56 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
 
                 int matchLength = mainElement & NUM_PRIMARY_LENGTHS;
                 if (matchLength == NUM_PRIMARY_LENGTHS) {
-                    matchLength += this.lengthTree.decodeElement();
+                    int lengthElement = lengthTable[(int) (bits >>> lengthShift)];
+                    if (lengthElement < 0) {
+                        lengthElement = lengthTree.decodeLong(bits, lengthElement);
+                    }
+                    codeLength = lengthElement & CODE_LENGTH_MASK;
+                    bits <<= codeLength;
+                    count -= codeLength;
+                    matchLength += lengthElement >>> CODE_LENGTH_BITS;
                 }
 
                 int match_offset = mainElement >>> 3;
 
                 if (match_offset > 2) {
                     // not repeated offset
-                    int extra = this.extraBits[match_offset];
-                    match_offset = this.positionBase[match_offset];
-
-                    if (extra > 3) {
-                        // verbatim and aligned bits
-                        match_offset += (readBits(extra - 3) << 3) + this.alignedTree.decodeElement();
+                    int extra = EXTRA_BITS[match_offset];
+                    match_offset = POSITION_BASE[match_offset];
+
+                    if (count <= 32) {
+                        if (in > end) {
+                            throw new CorruptCabException();
+                        }
+                        bits |= (Integer.rotateLeft(input.getInt(in), 16) & 0xFFFFFFFFL) << 32 - count;
+                        in += 4;
+                        count += 32;
                     }
-                    else if (extra == 3) {
-                        // aligned bits only
-                        match_offset += this.alignedTree.decodeElement();
+
+                    if (extra >= 3) {
+                        if (extra > 3) {
+                            // verbatim and aligned bits
+                            extra -= 3;
+                            match_offset += (int) (bits >>> 64 - extra) << 3;
+                            bits <<= extra;
+                            count -= extra;
+                        }
+
+                        // aligned bits
+                        int alignedElement = alignedTable[(int) (bits >>> alignedShift)];
+                        if (alignedElement < 0) {
+                            alignedElement = alignedTree.decodeLong(bits, alignedElement);
+                        }
+                        codeLength = alignedElement & CODE_LENGTH_MASK;
+                        bits <<= codeLength;
+                        count -= codeLength;
+                        match_offset += alignedElement >>> CODE_LENGTH_BITS;
                     }
                     else if (extra > 0) {
                         // verbatim bits only
-                        match_offset += readBits(extra);
+                        match_offset += (int) (bits >>> 64 - extra);
+                        bits <<= extra;
+                        count -= extra;
                     }
                     else {
                         match_offset = 1;
@@ -525,11 +750,7 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
                 matchLength += MIN_MATCH;
                 this_run -= matchLength;
 
-                while (matchLength > 0) {
-                    window[windowPos] = window[windowPos - match_offset & mask];
-                    windowPos = windowPos + 1 & mask;
-                    matchLength--;
-                }
+                windowPos = copyMatch(window, windowPos, match_offset, matchLength, mask);
             }
         }
 
@@ -537,27 +758,100 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
             throw new CorruptCabException();
         }
 
+        this.index = in;
+        this.bitBuffer = bits;
+        this.bitCount = count;
+
         this.R0 = r0;
         this.R1 = r1;
         this.R2 = r2;
         this.windowPosition = windowPos;
     }
 
+    /**
+     * Copies a match to the window. {@link #decompressBlockActions(int)} makes sure the run fits before the end of the window,
+     * so only the source can wrap around (to the end of the window), and a match can only run past the end of the window (into
+     * the padding behind it) when the data is corrupt.
+     *
+     * @return the window position after the match
+     */
+    private int copyMatch(byte[] window, int position, int offset, int length, int mask) {
+        int source = position - offset;
+
+        if (source < 0 && this.history != null) {
+            return copyHistory(window, position, offset, length, mask);
+        }
+
+        if (length < SHORT_MATCH || source < 0 || offset <= 0) {
+            // short, or wrapping around the start of the window
+            for (int end = position + length; position < end; position++) {
+                window[position] = window[position - offset & mask];
+            }
+            return position;
+        }
+
+        if (offset >= length) {
+            System.arraycopy(window, source, window, position, length);
+        }
+        else if (offset == 1) {
+            Arrays.fill(window, position, position + length, window[source]);
+        }
+        else {
+            // the match repeats its first 'offset' bytes, so copy those, then keep doubling what was already copied
+            System.arraycopy(window, source, window, position, offset);
+
+            int copied = offset;
+            while (copied < length) {
+                int count = Math.min(copied, length - copied);
+                System.arraycopy(window, position, window, position + copied, count);
+                copied += count;
+            }
+        }
+        return position + length;
+    }
+
+    /**
+     * Copies a match that starts before the frame, from the off-heap window.
+     *
+     * @return the frame position after the match
+     */
+    private int copyHistory(byte[] frame, int position, int offset, int length, int mask) {
+        ByteBuffer history = this.history;
+        int count = Math.min(length, offset - position);
+        int start = this.frameBase + position - offset & mask;
+
+        int first = Math.min(count, mask + 1 - start);
+        history.position(start);
+        history.get(frame, position, first);
+        if (first < count) {
+            // wrapping around the start of the window
+            history.position(0);
+            history.get(frame, position + first, count - first);
+        }
+
+        // the rest of the match repeats what was just copied
+        for (int i = count; i < length; i++) {
+            frame[position + i] = frame[position + i - offset];
+        }
+        return position + length;
+    }
+
     private int readShort() {
-        if (this.index < this.length) {
-            int i = this.inputBytes[this.index] & 0xFF | (this.inputBytes[this.index + 1] & 0xFF) << 8;
+        if (this.index + 1 < this.length) {
+            int i = this.inputBytes.getShort(this.index) & 0xFFFF;
             this.index += 2;
             return i;
         }
 
         this.abort = true;
-        this.index = 0;
         return 0;
     }
 
+    @SuppressWarnings("NumericCastThatLosesPrecision")
     int readBits(int numBitsToRead) {
-        int i = this.bitsLeft >>> 32 - numBitsToRead;
-        readNumberBits(numBitsToRead);
+        ensureBits(numBitsToRead);
+        int i = (int) (this.bitBuffer >>> 64 - numBitsToRead);
+        removeBits(numBitsToRead);
         return i;
     }
 
@@ -567,16 +861,14 @@ public final class DecompressLzx implements Decompressor, LZXConstants {
         }
 
         this.intelStarted = true;
-        System.arraycopy(this.inputBytes, this.index, this.localWindow, this.windowPosition, length);
+        this.inputBytes.position(this.index);
+        this.inputBytes.get(this.localWindow, this.windowPosition, length);
         this.index += length;
         this.windowPosition += length;
     }
 
     private int readInt() {
-        int i = this.inputBytes[this.index] & 0xFF |
-               (this.inputBytes[this.index + 1] & 0xFF) << 8 |
-               (this.inputBytes[this.index + 2] & 0xFF) << 16 |
-               (this.inputBytes[this.index + 3] & 0xFF) << 24;
+        int i = this.inputBytes.getInt(this.index);
         this.index += 4;
 
         return i;
@@ -24,12 +24,14 @@ final class DecompressLzxTree implements LZXConstants {
 
     private int[] a1;
     private int[] a2;
-    private int[] table;
+
+    /** indexed by the next {@link #b1} bits, see {@link #decodeElement()} for the entries */
+    int[] table;
+    /** moves the next {@link #b1} bits of the 64-bit buffer down to a table index */
+    int shift;
 
     private int b1;
     private int b2;
-    private int b3;
-    private int b4;
 
     private DecompressLzx decompressor;
     private DecompressLzxTree root;
@@ -45,8 +47,7 @@ final class DecompressLzxTree implements LZXConstants {
         this.decompressor = decompressor;
         this.root = root;
         this.b2 = 1 << this.b1;
-        this.b3 = this.b2 - 1;
-        this.b4 = 32 - this.b1;
+        this.shift = 64 - this.b1;
         this.a1 = new int[this.size * 2];
         this.a2 = new int[this.size * 2];
         this.table = new int[this.b2];
@@ -178,7 +179,7 @@ final class DecompressLzxTree implements LZXConstants {
                         throw new CorruptCabException();
                     }
                     for (i = c3[i1]; i < m; i++) {
-                        table[i] = j;
+                        table[i] = j << CODE_LENGTH_BITS | i1;
                     }
                     c3[i1] = m;
                 } else {
@@ -239,23 +240,47 @@ final class DecompressLzxTree implements LZXConstants {
         System.arraycopy(this.LENS, 0, this.aa, 0, this.size);
     }
 
+    /**
+     * Table entries are either the symbol shifted above the length of its code, or (for codes longer than the table) the
+     * negated index of the tree node to continue with, see {@link #decodeLong(long, int)}. The decode loops of
+     * {@link DecompressLzx} look them up directly.
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
     int decodeElement() {
-        int i = this.table[this.decompressor.bitsLeft >>> this.b4 & this.b3];
-
-        while (i < 0) {
-            int j = 1 << this.b4 - 1;
-            do {
-                i = -i;
-                if ((this.decompressor.bitsLeft & j) == 0) {
-                    i = this.a1[i];
-                } else {
-                    i = this.a2[i];
-                }
-                j >>>= 1;
-            } while (i < 0);
+        DecompressLzx decompressor = this.decompressor;
+        decompressor.ensureBits(16);
+
+        long bits = decompressor.bitBuffer;
+        int i = this.table[(int) (bits >>> this.shift)];
+        if (i < 0) {
+            i = decodeLong(bits, i);
         }
 
-        this.decompressor.readNumberBits(this.LENS[i]);
-        return i;
+        decompressor.removeBits(i & CODE_LENGTH_MASK);
+        return i >>> CODE_LENGTH_BITS;
+    }
+
+    /**
+     * Walks the tree for a code that is longer than the table.
+     *
+     * @param bits the bit buffer, with the code starting at the most significant bit
+     * @param node the (negative) table entry
+     *
+     * @return the table entry the code would have, if the table was wide enough
+     */
+    int decodeLong(long bits, int node) {
+        long j = 1L << 63 - this.b1;
+        int i = node;
+        do {
+            i = -i;
+            if ((bits & j) == 0) {
+                i = this.a1[i];
+            } else {
+                i = this.a2[i];
+            }
+            j >>>= 1;
+        } while (i < 0);
+
+        return i << CODE_LENGTH_BITS | this.LENS[i];
     }
 }
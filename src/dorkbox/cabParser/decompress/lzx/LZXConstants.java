@@ -26,12 +26,24 @@ public interface LZXConstants {
 
     public static final int MIN_MATCH              = 2;
     public static final int MAX_MATCH              = 257;
+    // matches shorter than this are copied a byte at a time
+    public static final int SHORT_MATCH            = 8;
 
     public static final int NUM_REPEATED_OFFSETS   = 3;
     public static final int MAX_GROWTH             = 6144;
 
     public static final int E8_DISABLE_THRESHOLD   = 32768;
 
+    // widths of the primary lookup tables, longer codes are decoded by walking a tree
+    public static final int MAIN_TABLE_BITS        = 12;
+    public static final int LENGTH_TABLE_BITS      = 10;
+    public static final int ALIGNED_TABLE_BITS     = 7;
+    public static final int PRETREE_TABLE_BITS     = 8;
+
+    // table entries are the symbol, shifted above the length of its code
+    public static final int CODE_LENGTH_BITS       = 5;
+    public static final int CODE_LENGTH_MASK       = (1 << CODE_LENGTH_BITS) - 1;
+
     public static final int BLOCKTYPE_VERBATIM     = 1;
     public static final int BLOCKTYPE_ALIGNED      = 2;
     public static final int BLOCKTYPE_UNCOMPRESSED = 3;
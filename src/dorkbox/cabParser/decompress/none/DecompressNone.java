@@ -15,6 +15,8 @@
  */
 package dorkbox.cabParser.decompress.none;
 
+import java.nio.ByteBuffer;
+
 import dorkbox.cabParser.CabException;
 import dorkbox.cabParser.CorruptCabException;
 import dorkbox.cabParser.decompress.Decompressor;
@@ -25,11 +27,16 @@ public final class DecompressNone implements Decompressor {
     }
 
     @Override
-    public void decompress(byte[] inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
+    public ByteBuffer decompress(ByteBuffer inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
         if (inputLength != outputLength) {
             throw new CorruptCabException();
         }
-        System.arraycopy(inputBytes, 0, outputBytes, 0, outputLength);
+
+        // stored data is its own output
+        ByteBuffer output = inputBytes.duplicate();
+        output.position(0);
+        output.limit(outputLength);
+        return output;
     }
 
     @Override
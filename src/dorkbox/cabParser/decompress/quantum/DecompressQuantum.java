@@ -0,0 +1,285 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.decompress.quantum;
+
+import java.nio.ByteBuffer;
+
+import dorkbox.cabParser.CabException;
+import dorkbox.cabParser.CorruptCabException;
+import dorkbox.cabParser.decompress.Decompressor;
+
+/**
+ * Quantum, an LZ77 coder with adaptive arithmetic coding. Every CFDATA record is one frame of up to 32768 bytes, which starts
+ * the arithmetic coder over, while the models and the window carry on through the folder.
+ */
+public final class DecompressQuantum implements Decompressor {
+    private static final int FRAME_SIZE = 32768;
+    private static final int MAX_GROWTH = 6144;
+
+    private static final int[] POSITION_BASE = {0, 1, 2, 3, 4, 6, 8, 12, 16, 24, 32, 48, 64, 96, 128, 192, 256, 384, 512, 768,
+                                                1024, 1536, 2048, 3072, 4096, 6144, 8192, 12288, 16384, 24576, 32768, 49152,
+                                                65536, 98304, 131072, 196608, 262144, 393216, 524288, 786432, 1048576, 1572864};
+
+    private static final int[] EXTRA_BITS = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11,
+                                             12, 12, 13, 13, 14, 14, 15, 15, 16, 16, 17, 17, 18, 18, 19, 19};
+
+    private static final int[] LENGTH_BASE = {0, 1, 2, 3, 4, 5, 6, 8, 10, 12, 14, 18, 22, 26, 30, 38, 46, 54, 62, 78, 94, 110,
+                                              126, 158, 190, 222, 254};
+
+    private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+
+    /** what comes next: a literal of one of the four literal models, a match of 3 or 4 bytes, or a longer match */
+    private final DecompressQuantumModel selectors = new DecompressQuantumModel(0, 7);
+    private final DecompressQuantumModel[] literals = {new DecompressQuantumModel(0, 64), new DecompressQuantumModel(64, 64),
+                                                       new DecompressQuantumModel(128, 64), new DecompressQuantumModel(192, 64)};
+    private final DecompressQuantumModel lengths = new DecompressQuantumModel(0, 27);
+
+    /** position slots of 3 byte, 4 byte and longer matches, which depend on the window size */
+    private DecompressQuantumModel positions3;
+    private DecompressQuantumModel positions4;
+    private DecompressQuantumModel positions;
+
+    private int        windowBits = -1;
+    private byte[]     window;
+    private ByteBuffer windowView;
+    private int        windowMask;
+    private int        windowPosition;
+
+    /** range of the arithmetic coder, and the 16 bits of the stream it has looked at */
+    private int        high;
+    private int        low;
+    private int        code;
+
+    private ByteBuffer inputBytes;
+    private int        inputLength;
+    private int        index;
+
+    /** bits not read yet, starting at the most significant bit */
+    private long       bitBuffer;
+    /** number of valid bits in {@link #bitBuffer} */
+    private int        bitCount;
+
+    @Override
+    public void init(int windowBits) throws CabException {
+        reset(windowBits);
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
+        int start = this.windowPosition;
+        int end = start + outputLength;
+        if (outputLength > FRAME_SIZE || end > this.window.length) {
+            throw new CorruptCabException();
+        }
+
+        this.inputBytes = inputBytes;
+        this.inputLength = inputLength;
+        this.index = 0;
+        this.bitBuffer = 0L;
+        this.bitCount = 0;
+
+        this.high = 0xFFFF;
+        this.low = 0;
+        this.code = readBits(16);
+
+        byte[] window = this.window;
+        int mask = this.windowMask;
+        int position = start;
+
+        while (position < end) {
+            int selector = decodeSymbol(this.selectors);
+            if (selector < 4) {
+                window[position++] = (byte) decodeSymbol(this.literals[selector]);
+                continue;
+            }
+
+            int length;
+            int slot;
+            if (selector == 4) {
+                slot = decodeSymbol(this.positions3);
+                length = 3;
+            }
+            else if (selector == 5) {
+                slot = decodeSymbol(this.positions4);
+                length = 4;
+            }
+            else {
+                int lengthSlot = decodeSymbol(this.lengths);
+                length = LENGTH_BASE[lengthSlot] + readBits(LENGTH_EXTRA[lengthSlot]) + 5;
+                slot = decodeSymbol(this.positions);
+            }
+            int offset = POSITION_BASE[slot] + readBits(EXTRA_BITS[slot]) + 1;
+
+            // matches never cross the end of a frame
+            if (position + length > end) {
+                throw new CorruptCabException();
+            }
+
+            // the models limit offsets to the window, which is the whole buffer or less
+            int source = position - offset;
+            if (source >= 0 && offset >= length) {
+                System.arraycopy(window, source, window, position, length);
+            }
+            else {
+                for (int i = 0; i < length; i++) {
+                    window[position + i] = window[source + i & mask];
+                }
+            }
+            position += length;
+        }
+
+        // the coder reads 16 bits ahead, which may be up to 2 bytes past the data
+        if (((long) this.index << 3) - this.bitCount > (long) (inputLength + 2) << 3) {
+            throw new CorruptCabException();
+        }
+
+        this.windowPosition = end & mask;
+        this.windowView.limit(end);
+        this.windowView.position(start);
+        return this.windowView;
+    }
+
+    /**
+     * Decodes the next symbol of a model, and updates the model and the range for it.
+     */
+    private int decodeSymbol(DecompressQuantumModel model) {
+        int[] frequencies = model.frequencies;
+        int entries = model.entries;
+        int high = this.high;
+        int low = this.low;
+        int code = this.code;
+
+        int total = frequencies[0];
+        int target = (((code - low + 1) * total - 1) / ((high - low & 0xFFFF) + 1)) & 0xFFFF;
+
+        int i = 1;
+        while (i < entries && frequencies[i] > target) {
+            i++;
+        }
+        int symbol = model.symbols[i - 1];
+
+        int range = high - low + 1;
+        high = low + frequencies[i - 1] * range / total - 1 & 0xFFFF;
+        low = low + frequencies[i] * range / total & 0xFFFF;
+
+        do {
+            frequencies[--i] += 8;
+        } while (i > 0);
+        if (frequencies[0] > 3800) {
+            model.update();
+        }
+
+        while (true) {
+            if ((low & 0x8000) != (high & 0x8000)) {
+                if ((low & 0x4000) == 0 || (high & 0x4000) != 0) {
+                    break;
+                }
+                // the range straddles the middle
+                code ^= 0x4000;
+                low &= 0x3FFF;
+                high |= 0x4000;
+            }
+
+            low = low << 1 & 0xFFFF;
+            high = (high << 1 | 1) & 0xFFFF;
+
+            if (this.bitCount == 0) {
+                refill();
+            }
+            code = (code << 1 | (int) (this.bitBuffer >>> 63)) & 0xFFFF;
+            this.bitBuffer <<= 1;
+            this.bitCount--;
+        }
+
+        this.high = high;
+        this.low = low;
+        this.code = code;
+        return symbol;
+    }
+
+    private int readBits(int count) {
+        if (count == 0) {
+            return 0;
+        }
+        if (this.bitCount < count) {
+            refill();
+        }
+
+        int bits = (int) (this.bitBuffer >>> 64 - count);
+        this.bitBuffer <<= count;
+        this.bitCount -= count;
+        return bits;
+    }
+
+    /**
+     * Fills the bit buffer a byte at a time, with zeros past the end of the data.
+     */
+    private void refill() {
+        long bits = this.bitBuffer;
+        int count = this.bitCount;
+        int index = this.index;
+
+        while (count <= 56) {
+            if (index < this.inputLength) {
+                bits |= (long) (this.inputBytes.get(index) & 0xFF) << 56 - count;
+            }
+            index++;
+            count += 8;
+        }
+
+        this.bitBuffer = bits;
+        this.bitCount = count;
+        this.index = index;
+    }
+
+    @Override
+    public int getMaxGrowth() {
+        return MAX_GROWTH;
+    }
+
+    @Override
+    public void reset(int windowBits) throws CabException {
+        if (windowBits != this.windowBits) {
+            if (windowBits < 10 || windowBits > 21) {
+                throw new CabException("Unsupported Quantum window size " + windowBits);
+            }
+
+            // at least a frame, so frames never wrap around the window and can be handed out from it
+            this.window = new byte[Math.max(1 << windowBits, FRAME_SIZE)];
+            this.windowView = ByteBuffer.wrap(this.window);
+            this.windowMask = this.window.length - 1;
+
+            int slots = windowBits * 2;
+            this.positions3 = new DecompressQuantumModel(0, Math.min(slots, 24));
+            this.positions4 = new DecompressQuantumModel(0, Math.min(slots, 36));
+            this.positions = new DecompressQuantumModel(0, slots);
+            this.windowBits = windowBits;
+        }
+        else {
+            this.positions3.reset();
+            this.positions4.reset();
+            this.positions.reset();
+        }
+
+        this.selectors.reset();
+        for (DecompressQuantumModel model : this.literals) {
+            model.reset();
+        }
+        this.lengths.reset();
+
+        this.windowPosition = 0;
+    }
+}
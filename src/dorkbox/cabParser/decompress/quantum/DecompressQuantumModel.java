@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.decompress.quantum;
+
+/**
+ * Adaptive frequency model of the Quantum arithmetic coder. Symbols are kept roughly sorted by how often they were seen, most
+ * frequent first, and {@link #frequencies} holds their cumulative frequencies, so it is decreasing and ends with 0.
+ */
+final class DecompressQuantumModel {
+    private final int start;
+    final int entries;
+
+    final int[] symbols;
+    final int[] frequencies;
+
+    /** updates left until the model is rescaled and sorted */
+    private int shiftsLeft;
+
+    DecompressQuantumModel(int start, int entries) {
+        this.start = start;
+        this.entries = entries;
+        this.symbols = new int[entries + 1];
+        this.frequencies = new int[entries + 1];
+        reset();
+    }
+
+    void reset() {
+        this.shiftsLeft = 4;
+        for (int i = 0; i <= this.entries; i++) {
+            this.symbols[i] = this.start + i;
+            this.frequencies[i] = this.entries - i;
+        }
+    }
+
+    /**
+     * Halves the frequencies, once they grew too large. Every 50th time, the symbols are sorted by frequency as well.
+     */
+    void update() {
+        int[] symbols = this.symbols;
+        int[] frequencies = this.frequencies;
+        int entries = this.entries;
+
+        if (--this.shiftsLeft != 0) {
+            for (int i = entries - 1; i >= 0; i--) {
+                frequencies[i] >>>= 1;
+                if (frequencies[i] <= frequencies[i + 1]) {
+                    frequencies[i] = frequencies[i + 1] + 1;
+                }
+            }
+            return;
+        }
+
+        this.shiftsLeft = 50;
+        for (int i = 0; i < entries; i++) {
+            // from cumulative to single frequencies, which must not drop to 0
+            frequencies[i] = (frequencies[i] - frequencies[i + 1] + 1) >>> 1;
+        }
+
+        // the encoder uses the same (unstable) selection sort, so it has to be exactly this one
+        for (int i = 0; i < entries - 1; i++) {
+            for (int j = i + 1; j < entries; j++) {
+                if (frequencies[i] < frequencies[j]) {
+                    int frequency = frequencies[i];
+                    frequencies[i] = frequencies[j];
+                    frequencies[j] = frequency;
+
+                    int symbol = symbols[i];
+                    symbols[i] = symbols[j];
+                    symbols[j] = symbol;
+                }
+            }
+        }
+
+        for (int i = entries - 1; i >= 0; i--) {
+            frequencies[i] += frequencies[i + 1];
+        }
+    }
+}
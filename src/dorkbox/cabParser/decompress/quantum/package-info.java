@@ -0,0 +1,26 @@
+/*
+ * Copyright 2021 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * This is the root package of the Java SemVer library.
+ * <p>
+ * The package exports most of the public API. The main entry point of the
+ * package is the {@code Version} class, which implements the Facade design
+ * pattern.
+ *
+ * @author Zafar Khaja <zafarkhaja@gmail.com>
+ */
+package dorkbox.cabParser.decompress.quantum;
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.decompress.zip;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import dorkbox.cabParser.CabException;
+import dorkbox.cabParser.CorruptCabException;
+import dorkbox.cabParser.decompress.Decompressor;
+
+/**
+ * MSZIP decoder on top of the JDK's (native zlib) {@link Inflater}. Every block is a raw deflate stream after a "CK"
+ * signature, which can refer back into the previous block, so that block is given to the inflater as its dictionary.
+ * <p>
+ * {@link DecompressZip} is the pure Java fallback, for when {@link #isAvailable()} is {@code false}.
+ */
+public final class DecompressInflater implements Decompressor {
+    private static final boolean AVAILABLE = probe();
+
+    private Inflater inflater;
+
+    /** for blocks that are not backed by an array (a memory mapped cabinet) */
+    private byte[] inputCopy;
+
+    /** output of the previous block, which is the history of the next one */
+    private byte[] history;
+    private int historyLength;
+
+    /**
+     * @return {@code true} if the JDK's inflater can be used
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    private static boolean probe() {
+        try {
+            new Inflater(true).end();
+            return true;
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void init(int windowBits) {
+        this.inflater = new Inflater(true);
+        this.historyLength = 0;
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
+        if (inputLength < 2 || inputBytes.get(0) != 67 || inputBytes.get(1) != 75) {
+            throw new CorruptCabException();
+        }
+        if (outputBytes.length < outputLength) {
+            throw new CabException();
+        }
+
+        byte[] input;
+        int offset;
+        if (inputBytes.hasArray()) {
+            input = inputBytes.array();
+            offset = inputBytes.arrayOffset() + 2;
+        }
+        else {
+            if (this.inputCopy == null) {
+                this.inputCopy = new byte[CAB_BLOCK_SIZE + getMaxGrowth()];
+            }
+            input = this.inputCopy;
+            offset = 0;
+
+            ByteBuffer view = inputBytes.duplicate();
+            view.position(2);
+            view.get(input, 0, inputLength - 2);
+        }
+
+        Inflater inflater = this.inflater;
+        inflater.reset();
+        if (this.historyLength > 0) {
+            // copied by the inflater, so the output can overwrite it
+            inflater.setDictionary(this.history, 0, this.historyLength);
+        }
+        inflater.setInput(input, offset, inputLength - 2);
+
+        int count = 0;
+        try {
+            while (count < outputLength) {
+                int inflated = inflater.inflate(outputBytes, count, outputLength - count);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new CorruptCabException(e.getMessage());
+        }
+
+        if (count != outputLength) {
+            throw new CorruptCabException();
+        }
+
+        this.history = outputBytes;
+        this.historyLength = outputLength;
+        return null;
+    }
+
+    @Override
+    public int getMaxGrowth() {
+        return 28;
+    }
+
+    @Override
+    public void reset(int windowBits) {
+        this.historyLength = 0;
+    }
+
+    /**
+     * Frees the native memory of the inflater. The decompressor cannot be used afterwards.
+     */
+    public void end() {
+        if (this.inflater != null) {
+            this.inflater.end();
+            this.inflater = null;
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package dorkbox.cabParser.decompress.zip;
 
+import java.nio.ByteBuffer;
+
 import dorkbox.cabParser.CabException;
 import dorkbox.cabParser.CorruptCabException;
 import dorkbox.cabParser.decompress.Decompressor;
@@ -28,9 +30,19 @@ public final class DecompressZip implements Decompressor {
 
     private static final int[] ar3 = {16,17,18,0,8,7,9,6,10,5,11,4,12,3,13,2,14,1,15};
 
+    /** the markers of every byte of the previous block, see {@link #decompressSpeculative(ByteBuffer, char[], int, int)} */
+    private static final char[] MARKERS = new char[32768];
+    static {
+        for (int i = 0; i < MARKERS.length; i++) {
+            MARKERS[i] = (char) (256 + i);
+        }
+    }
+
     private byte[] bytes = new byte[320];
-    private byte[] inputBytes;
+    private ByteBuffer inputBytes;
     private byte[] outputBytes;
+    /** output of a speculative block, instead of {@link #outputBytes} */
+    private char[] markers;
 
     private int index;
     private int inputPlus4;
@@ -45,6 +57,10 @@ public final class DecompressZip implements Decompressor {
     private DecompressZipState state2;
     private DecompressZipState state3;
 
+    /** tables of the current block, either the dynamic ones, or the shared fixed ones */
+    private DecompressZipState literals;
+    private DecompressZipState distances;
+
     @Override
     public void init(int windowBits) {
         this.state1 = new DecompressZipState(288, 9, this);
@@ -53,17 +69,58 @@ public final class DecompressZip implements Decompressor {
     }
 
     @Override
-    public void decompress(byte[] inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
-        this.inputBytes = inputBytes;
+    public ByteBuffer decompress(ByteBuffer inputBytes, byte[] outputBytes, int inputLength, int outputLength) throws CabException {
+        if (outputBytes.length < 33027) {
+            throw new CabException();
+        }
+
         this.outputBytes = outputBytes;
+        decode(inputBytes, inputLength, outputLength);
+        return null;
+    }
 
-        if (this.inputBytes[0] != 67 || this.inputBytes[1] != 75) {
-            throw new CorruptCabException();
-        }
-        if (outputBytes.length < 33027) {
+    /**
+     * Decodes a block without knowing the previous one, which MSZIP blocks use as their history. Every byte copied from the
+     * previous block is left as a marker, {@code 256 +} its index in the previous block, until it is replaced by
+     * {@link #resolve(char[], int, byte[], byte[])}. Blocks of a folder can then be decoded in any order, or at the same time
+     * with a decompressor each.
+     */
+    public void decompressSpeculative(ByteBuffer inputBytes, char[] output, int inputLength, int outputLength) throws CabException {
+        if (output.length < 33027) {
             throw new CabException();
         }
-        if (inputBytes.length < 28) {
+
+        // whatever is not overwritten yet is still the previous block
+        System.arraycopy(MARKERS, 0, output, 0, MARKERS.length);
+        this.markers = output;
+        try {
+            decode(inputBytes, inputLength, outputLength);
+        } finally {
+            this.markers = null;
+        }
+    }
+
+    /**
+     * Replaces the markers of a block decoded by {@link #decompressSpeculative(ByteBuffer, char[], int, int)} with the bytes of
+     * the previous block, which must be resolved already.
+     *
+     * @param previous the previous block, at least 32768 long
+     */
+    @SuppressWarnings("NumericCastThatLosesPrecision")
+    public static void resolve(char[] decoded, int length, byte[] previous, byte[] output) {
+        for (int i = 0; i < length; i++) {
+            int c = decoded[i];
+            output[i] = c < 256 ? (byte) c : previous[c - 256];
+        }
+    }
+
+    private void decode(ByteBuffer inputBytes, int inputLength, int outputLength) throws CabException {
+        this.inputBytes = inputBytes;
+
+        if (this.inputBytes.get(0) != 67 || this.inputBytes.get(1) != 75) {
+            throw new CorruptCabException();
+        }
+        if (inputBytes.limit() < 28) {
             throw new CabException();
         }
 
@@ -100,7 +157,7 @@ public final class DecompressZip implements Decompressor {
         this.int2 -= paramInt;
         if (this.int2 <= 0) {
             this.int2 += 16;
-            this.int1 |= (this.inputBytes[this.index] & 0xFF | (this.inputBytes[this.index + 1] & 0xFF) << 8) << this.int2;
+            this.int1 |= (this.inputBytes.getShort(this.index) & 0xFFFF) << this.int2;
             this.index += 2;
         }
     }
@@ -116,14 +173,15 @@ public final class DecompressZip implements Decompressor {
         int i = this.int3;
         int j = this.outputLength;
         byte[] arrayOfByte1 = this.outputBytes;
-        int[] arrayOfInt1 = this.state1.intA2;
-        int[] arrayOfInt2 = this.state1.intA3;
-        int[] arrayOfInt3 = this.state1.intA4;
-        byte[] arrayOfByte2 = this.state1.byteA;
-        int[] arrayOfInt4 = this.state2.intA2;
-        int[] arrayOfInt5 = this.state2.intA3;
-        int[] arrayOfInt6 = this.state2.intA4;
-        byte[] arrayOfByte3 = this.state2.byteA;
+        char[] markers = this.markers;
+        int[] arrayOfInt1 = this.literals.intA2;
+        int[] arrayOfInt2 = this.literals.intA3;
+        int[] arrayOfInt3 = this.literals.intA4;
+        byte[] arrayOfByte2 = this.literals.byteA;
+        int[] arrayOfInt4 = this.distances.intA2;
+        int[] arrayOfInt5 = this.distances.intA3;
+        int[] arrayOfInt6 = this.distances.intA4;
+        byte[] arrayOfByte3 = this.distances.byteA;
         int k = this.int1;
         int m = this.int2;
 
@@ -150,11 +208,15 @@ public final class DecompressZip implements Decompressor {
             m -= i1;
             if (m <= 0) {
                 m += 16;
-                k |= (this.inputBytes[this.index] & 0xFF | (this.inputBytes[this.index + 1] & 0xFF) << 8) << m;
+                k |= (this.inputBytes.getShort(this.index) & 0xFFFF) << m;
                 this.index += 2;
             }
             if (n < 256) {
-                arrayOfByte1[i++] = (byte) n;
+                if (markers == null) {
+                    arrayOfByte1[i++] = (byte) n;
+                } else {
+                    markers[i++] = (char) n;
+                }
             } else {
                 n -= 257;
                 if (n < 0) {
@@ -169,7 +231,7 @@ public final class DecompressZip implements Decompressor {
                     m -= i4;
                     if (m <= 0) {
                         m += 16;
-                        k |= (this.inputBytes[this.index] & 0xFF | (this.inputBytes[this.index + 1] & 0xFF) << 8) << m;
+                        k |= (this.inputBytes.getShort(this.index) & 0xFFFF) << m;
                         this.index += 2;
                     }
                 } else {
@@ -193,7 +255,7 @@ public final class DecompressZip implements Decompressor {
                 m -= i1;
                 if (m <= 0) {
                     m += 16;
-                    k |= (this.inputBytes[this.index] & 0xFF | (this.inputBytes[this.index + 1] & 0xFF) << 8) << m;
+                    k |= (this.inputBytes.getShort(this.index) & 0xFFFF) << m;
                     this.index += 2;
                 }
                 int i4 = i2 - 2 >> 1;
@@ -204,17 +266,25 @@ public final class DecompressZip implements Decompressor {
                     m -= i4;
                     if (m <= 0) {
                         m += 16;
-                        k |= (this.inputBytes[this.index] & 0xFF | (this.inputBytes[this.index + 1] & 0xFF) << 8) << m;
+                        k |= (this.inputBytes.getShort(this.index) & 0xFFFF) << m;
                         this.index += 2;
                     }
                 } else {
                     i3 = i2 + 1;
                 }
-                do {
-                    arrayOfByte1[i] = arrayOfByte1[i - i3 & 0x7FFF];
-                    i++;
-                    n--;
-                } while (n != 0);
+                if (markers == null) {
+                    do {
+                        arrayOfByte1[i] = arrayOfByte1[i - i3 & 0x7FFF];
+                        i++;
+                        n--;
+                    } while (n != 0);
+                } else {
+                    do {
+                        markers[i] = markers[i - i3 & 0x7FFF];
+                        i++;
+                        n--;
+                    } while (n != 0);
+                }
             }
         } while (i <= j);
         this.int3 = i;
@@ -226,43 +296,8 @@ public final class DecompressZip implements Decompressor {
     private void readStuffcommon() throws CabException {
         this.state1.main();
         this.state2.main();
-    }
-
-    private void setup() {
-        int i = 0;
-
-        do {
-            this.state1.byteA[i] = (byte) 8;
-            i++;
-        } while (i <= 143);
-
-        i = 144;
-        do {
-            this.state1.byteA[i] = (byte) 9;
-            i++;
-        } while (i <= 255);
-        i = 256;
-
-        do {
-            this.state1.byteA[i] = (byte) 7;
-            i++;
-        } while (i <= 279);
-        i = 280;
-
-        do {
-            this.state1.byteA[i] = (byte) 8;
-            i++;
-        } while (i <= 287);
-
-        i = 0;
-        do {
-            this.state2.byteA[i] = (byte) 5;
-            i++;
-        } while (i < 32);
-    }
-
-    private int makeShort(byte byte1, byte byte2) {
-        return byte1 & 0xFF | (byte2 & 0xFF) << 8;
+        this.literals = this.state1;
+        this.distances = this.state2;
     }
 
     @SuppressWarnings("NumericCastThatLosesPrecision")
@@ -337,7 +372,7 @@ public final class DecompressZip implements Decompressor {
     }
 
     private int readShort() {
-        int i = this.inputBytes[this.index] & 0xFF | (this.inputBytes[this.index + 1] & 0xFF) << 8;
+        int i = this.inputBytes.getShort(this.index) & 0xFFFF;
         this.index += 2;
         return i;
     }
@@ -359,8 +394,8 @@ public final class DecompressZip implements Decompressor {
             return;
         }
         if (j == 1) {
-            setup();
-            readStuffcommon();
+            this.literals = DecompressZipState.FIXED_LITERALS;
+            this.distances = DecompressZipState.FIXED_DISTANCES;
             bits();
             return;
         }
@@ -377,8 +412,8 @@ public final class DecompressZip implements Decompressor {
         if (this.index >= this.inputPlus4) {
             throw new CorruptCabException();
         }
-        int i = makeShort(this.inputBytes[this.index], this.inputBytes[this.index + 1]);
-        int j = makeShort(this.inputBytes[this.index + 2], this.inputBytes[this.index + 3]);
+        int i = this.inputBytes.getShort(this.index) & 0xFFFF;
+        int j = this.inputBytes.getShort(this.index + 2) & 0xFFFF;
 
         //noinspection NumericCastThatLosesPrecision
         if ((short) i != (short) (~j)) {
@@ -391,7 +426,15 @@ public final class DecompressZip implements Decompressor {
 
         maybeDecompress();
 
-        System.arraycopy(this.inputBytes, this.index, this.outputBytes, this.int3, i);
+        if (this.markers == null) {
+            this.inputBytes.position(this.index);
+            this.inputBytes.get(this.outputBytes, this.int3, i);
+        } else {
+            for (int k = 0; k < i; k++) {
+                this.markers[this.int3 + k] = (char) (this.inputBytes.get(this.index + k) & 0xFF);
+            }
+        }
+        this.index += i;
         this.int3 += i;
         if (this.int3 < this.outputLength) {
             maybeDecompress();
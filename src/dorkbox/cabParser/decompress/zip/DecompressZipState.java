@@ -15,9 +15,50 @@
  */
 package dorkbox.cabParser.decompress.zip;
 
+import java.util.Arrays;
+
 import dorkbox.cabParser.CorruptCabException;
 
 final class DecompressZipState {
+    /** every byte, with its bits in reverse order */
+    private static final int[] REVERSED = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            REVERSED[i] = Integer.reverse(i) >>> 24;
+        }
+    }
+
+    /**
+     * Tables of a fixed Huffman block, built once and shared, they are only read while decoding.
+     */
+    static final DecompressZipState FIXED_LITERALS;
+    static final DecompressZipState FIXED_DISTANCES;
+
+    static {
+        byte[] lengths = new byte[288];
+        Arrays.fill(lengths, 0, 144, (byte) 8);
+        Arrays.fill(lengths, 144, 256, (byte) 9);
+        Arrays.fill(lengths, 256, 280, (byte) 7);
+        Arrays.fill(lengths, 280, 288, (byte) 8);
+        FIXED_LITERALS = fixed(lengths, 9);
+
+        lengths = new byte[32];
+        Arrays.fill(lengths, (byte) 5);
+        FIXED_DISTANCES = fixed(lengths, 7);
+    }
+
+    private static DecompressZipState fixed(byte[] lengths, int tableBits) {
+        DecompressZipState state = new DecompressZipState(lengths.length, tableBits, null);
+        System.arraycopy(lengths, 0, state.byteA, 0, lengths.length);
+        try {
+            state.main();
+        } catch (CorruptCabException e) {
+            throw new IllegalStateException("Invalid fixed Huffman code", e);
+        }
+        return state;
+    }
+
     private int               intA;
     private int[]             intA1;
 
@@ -27,6 +68,10 @@ final class DecompressZipState {
 
     private DecompressZip     decompressZipImpl;
 
+    // scratch space of main(), so building tables does not allocate
+    private final int[]       counts = new int[17];
+    private final int[]       codes = new int[17];
+
     byte[]                    byteA;
     int[]                     intA2;
     int[]                     intA3;
@@ -46,8 +91,8 @@ final class DecompressZipState {
     }
 
     void main() throws CorruptCabException {
-        int[] arrayOfInt1 = new int[17];
-        int[] arrayOfInt2 = new int[17];
+        int[] arrayOfInt1 = this.counts;
+        int[] arrayOfInt2 = this.codes;
         int k = 0;
         do {
             arrayOfInt1[k] = 0;
@@ -76,7 +121,7 @@ final class DecompressZipState {
         for (k = 0; k < this.intA; k++) {
             m = this.byteA[k];
             if (m > 0) {
-                this.intA1[k] = shiftAndOtherStuff(arrayOfInt2[m], m);
+                this.intA1[k] = reverse(arrayOfInt2[m], m);
                 arrayOfInt2[m] += 1;
             }
         }
@@ -144,16 +189,12 @@ final class DecompressZipState {
         }
     }
 
-    private int shiftAndOtherStuff(int paramInt1, int paramInt2) {
-        int i = 0;
-        do {
-            i |= paramInt1 & 0x1;
-            i <<= 1;
-            paramInt1 >>>= 1;
-            paramInt2--;
-        } while (paramInt2 > 0);
-
-        return i >>> 1;
+    /**
+     * @return the lowest {@code length} bits of {@code code}, in reverse order (deflate sends Huffman codes starting with the
+     *         most significant bit, but reads everything else starting with the least significant bit)
+     */
+    private static int reverse(int code, int length) {
+        return (REVERSED[code & 0xFF] << 8 | REVERSED[code >>> 8 & 0xFF]) >>> 16 - length;
     }
 
     int read() {
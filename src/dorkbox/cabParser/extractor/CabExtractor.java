@@ -15,17 +15,18 @@
  */
 package dorkbox.cabParser.extractor;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Enumeration;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import dorkbox.cabParser.CabException;
 import dorkbox.cabParser.CabParser;
+import dorkbox.cabParser.CabSource;
 import dorkbox.cabParser.CabStreamSaver;
 import dorkbox.cabParser.structure.CabFileEntry;
 import dorkbox.cabParser.structure.CabFolderEntry;
@@ -38,6 +39,7 @@ public class CabExtractor {
 
     private final InputStream inputStream;
     private final CabParser parser;
+    private final CabStreamSaver streamSaver;
     private final AtomicBoolean done = new AtomicBoolean(false);
 
     /**
@@ -48,7 +50,7 @@ public class CabExtractor {
      *            CAB file
      */
     public CabExtractor(File cabFile) throws CabException, IOException {
-        this(cabFile, null, new DefaultCabFileSaver(null, cabFile));
+        this(cabFile, null, new DefaultStreamingCabFileSaver(null, cabFile));
     }
 
     /**
@@ -62,7 +64,7 @@ public class CabExtractor {
      *            <code>null</code>)
      */
     public CabExtractor(File cabFile, CabFileFilter filter) throws CabException, IOException {
-        this(cabFile, filter, new DefaultCabFileSaver(null, cabFile));
+        this(cabFile, filter, new DefaultStreamingCabFileSaver(null, cabFile));
     }
 
     /**
@@ -79,7 +81,7 @@ public class CabExtractor {
      */
     public CabExtractor(File cabFile, CabFileFilter filter, File extractDirectory)
             throws CabException, IOException {
-        this(cabFile, filter, new DefaultCabFileSaver(extractDirectory));
+        this(cabFile, filter, new DefaultStreamingCabFileSaver(extractDirectory));
     }
 
     /**
@@ -98,8 +100,9 @@ public class CabExtractor {
      */
     public CabExtractor(File cabFile, CabFileFilter filter, CabFileSaver saver)
             throws CabException, IOException {
-        this.inputStream = new BufferedInputStream(new FileInputStream(cabFile));
-        this.parser = new CabParser(this.inputStream, new FilteredCabStreamSaver(saver, filter));
+        this.inputStream = CabSource.of(cabFile);
+        this.streamSaver = new FilteredCabStreamSaver(saver, filter);
+        this.parser = new CabParser(this.inputStream, this.streamSaver);
     }
 
     /**
@@ -133,6 +136,7 @@ public class CabExtractor {
     public CabExtractor(InputStream inputStream, CabStreamSaver streamSaver)
             throws CabException, IOException {
         this.inputStream = inputStream;
+        this.streamSaver = streamSaver;
         this.parser = new CabParser(this.inputStream, streamSaver);
     }
 
@@ -141,11 +145,12 @@ public class CabExtractor {
      * parameter(s). Only first invocation of this method extracts files (mostly
      * because we are extracting from potentially non-rewindable CAB stream, but
      * also because extracting with predefined parameters is an idempotent
-     * operation).
+     * operation). A {@link Closeable} stream saver is closed once all files
+     * were extracted, which waits for files saved in the background.
      * 
      * @return <code>true</code> if files were extracted, <code>false</code>
      *         otherwise (if executed second time on the same
-     *         {@link CabExtractor) object)
+     *         {@link CabExtractor} object)
      */
     public boolean extract() throws CabException, IOException {
         boolean result = done.compareAndSet(false, true);
@@ -153,12 +158,46 @@ public class CabExtractor {
             try {
                 parser.extractStream();
             } finally {
-                inputStream.close();
+                close();
             }
         }
         return result;
     }
 
+    /**
+     * Same as {@link #extract()}, but every CAB folder is decompressed on its
+     * own thread of the executor. The {@link CabFileSaver} or
+     * {@link CabStreamSaver} is then called from those threads, so it must be
+     * thread-safe (the default savers are).
+     * 
+     * @param executor
+     *            runs one task per CAB folder (a few for uncompressed ones)
+     * @return <code>true</code> if files were extracted, <code>false</code>
+     *         otherwise (if executed second time on the same
+     *         {@link CabExtractor} object)
+     */
+    public boolean extract(Executor executor) throws CabException, IOException {
+        boolean result = done.compareAndSet(false, true);
+        if (result) {
+            try {
+                parser.extractStream(executor);
+            } finally {
+                close();
+            }
+        }
+        return result;
+    }
+
+    private void close() throws IOException {
+        try {
+            if (streamSaver instanceof Closeable) {
+                ((Closeable) streamSaver).close();
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
     public static String getVersion() {
         return CabParser.version;
     }
@@ -17,11 +17,12 @@ package dorkbox.cabParser.extractor;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
+import dorkbox.cabParser.CabOutputDirectory;
 import dorkbox.cabParser.structure.CabFileEntry;
 
 /**
@@ -31,8 +32,9 @@ public class DefaultCabFileSaver implements CabFileSaver {
 
     private static final Pattern FILENAME_PATTERN = Pattern.compile("\\.(?=[^\\.]+$)");
     private final File extractDirectory;
-    private AtomicInteger succeeded = new AtomicInteger(0);
-    private AtomicInteger failed = new AtomicInteger(0);
+    protected final CabOutputDirectory output;
+    protected final AtomicInteger succeeded = new AtomicInteger(0);
+    protected final AtomicInteger failed = new AtomicInteger(0);
 
     /**
      * Creates {@link CabFileSaver}.
@@ -47,6 +49,7 @@ public class DefaultCabFileSaver implements CabFileSaver {
                 getFileNameBase(cabFile));
         if (!this.extractDirectory.exists())
             this.extractDirectory.mkdirs();
+        this.output = new CabOutputDirectory(this.extractDirectory);
     }
 
     /**
@@ -59,15 +62,14 @@ public class DefaultCabFileSaver implements CabFileSaver {
         this.extractDirectory = (null == extractDirectory ? new File(".") : extractDirectory);
         if (!this.extractDirectory.exists())
             this.extractDirectory.mkdirs();
+        this.output = new CabOutputDirectory(this.extractDirectory);
     }
 
     @Override
     public void save(ByteArrayOutputStream outputStream, CabFileEntry cabFile) {
         if (outputStream != null) {
             try {
-                File file = new File(getExtractDirectory(), cabFile.getName().replace("\\", File.separator));
-                file.getParentFile().mkdirs();
-                FileOutputStream writer = new FileOutputStream(file);
+                OutputStream writer = output.create(cabFile);
                 try {
                     outputStream.writeTo(writer);
                 } finally {
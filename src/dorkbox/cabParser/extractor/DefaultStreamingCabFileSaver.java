@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import dorkbox.cabParser.structure.CabFileEntry;
+
+/**
+ * Saves extracted file content to a file while it is being extracted, so no file is ever held in memory.
+ */
+public class DefaultStreamingCabFileSaver extends DefaultCabFileSaver implements StreamingCabFileSaver {
+
+    /**
+     * Creates {@link StreamingCabFileSaver}.
+     * 
+     * @param baseDirectory
+     *            base directory where a sub-directory will be created
+     * @param cabFile
+     *            to define a sub-directory for extracting files from CAB
+     */
+    public DefaultStreamingCabFileSaver(File baseDirectory, File cabFile) {
+        super(baseDirectory, cabFile);
+    }
+
+    /**
+     * Creates {@link StreamingCabFileSaver}.
+     * 
+     * @param extractDirectory
+     *            target directory where the extracted files will be created
+     */
+    public DefaultStreamingCabFileSaver(File extractDirectory) {
+        super(extractDirectory);
+    }
+
+    @Override
+    public OutputStream openStream(CabFileEntry cabFile) {
+        try {
+            return output.create(cabFile);
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            return null;
+        }
+    }
+
+    @Override
+    public void closeStream(OutputStream outputStream, CabFileEntry cabFile) {
+        try {
+            outputStream.close();
+            succeeded.incrementAndGet();
+        } catch (IOException e) {
+            failed.incrementAndGet();
+        }
+    }
+}
@@ -15,27 +15,34 @@
  */
 package dorkbox.cabParser.extractor
 
+import dorkbox.cabParser.CabEntrySelector
 import dorkbox.cabParser.CabStreamSaver
 import dorkbox.cabParser.structure.CabFileEntry
 import java.io.ByteArrayOutputStream
+import java.io.Closeable
 import java.io.File
+import java.io.IOException
 import java.io.OutputStream
 
 /**
  * Implementation of [CabStreamSaver] that filters files to extract.
  * [CabFileFilter] and saves them using [CabFileSaver].
+ *
+ * A [StreamingCabFileSaver] gets the file content while it is being extracted, any other saver gets it in memory. The filter
+ * is known up front, so the cabinet is only read up to the last file it selects.
+ * Closing this closes the saver, when it is [Closeable] (for example, a [WriteBehindCabFileSaver]).
  */
 class FilteredCabStreamSaver(
 
     /**
      * defines how to save the [ByteArrayOutputStream] corresponding to [CabFileEntry]
      */
-    val saver: CabFileSaver = DefaultCabFileSaver(null),
+    val saver: CabFileSaver = DefaultStreamingCabFileSaver(null),
 
     /**
      * which files to extract (extract all files if `null`)
      */
-    val filter: CabFileFilter = CabFilePatternFilter(".+")) : CabStreamSaver {
+    val filter: CabFileFilter = CabFilePatternFilter(".+")) : CabStreamSaver, CabEntrySelector, Closeable {
 
     /**
      * To save some files to defined extract directory.
@@ -43,18 +50,46 @@ class FilteredCabStreamSaver(
      * @param extractDirectory directory to extract files (no sub-directory will be created)
      * @param filter which files to extract (extract all files if `null`)
      */
-    constructor(extractDirectory: File?, filter: CabFileFilter) : this(DefaultCabFileSaver(extractDirectory), filter)
+    constructor(extractDirectory: File?, filter: CabFileFilter) : this(DefaultStreamingCabFileSaver(extractDirectory), filter)
+
+    /**
+     * To save some files on a pool of writer threads, so extraction does not wait for the filesystem.
+     *
+     * The caller must [close] this once extraction is done (a [CabExtractor] does so, a [dorkbox.cabParser.CabParser] does
+     * not). That waits for the files still being written and stops the writer threads, and only then are [succeeded] and
+     * [failed] final.
+     *
+     * @param saver defines how to save the files, on the writer threads (must be thread-safe)
+     * @param filter which files to extract
+     * @param writerThreads how many files are written at the same time
+     * @param queueSize how many extracted files can wait for a writer before extraction is held up
+     */
+    constructor(saver: CabFileSaver, filter: CabFileFilter, writerThreads: Int, queueSize: Int) :
+            this(WriteBehindCabFileSaver(saver, writerThreads, queueSize), filter)
 
     override fun closeOutputStream(outputStream: OutputStream, entry: CabFileEntry) {
-        saver.save(outputStream as ByteArrayOutputStream, entry)
+        if (saver is StreamingCabFileSaver) {
+            saver.closeStream(outputStream, entry)
+        }
+        else {
+            saver.save(outputStream as ByteArrayOutputStream, entry)
+        }
+    }
+
+    override fun isWanted(entry: CabFileEntry): Boolean {
+        return filter.test(entry)
     }
 
     override fun openOutputStream(entry: CabFileEntry): OutputStream? {
-        return if (filter.test(entry)) {
-            ByteArrayOutputStream(entry.size.toInt())
+        return if (!filter.test(entry)) {
+            null
+        }
+        else if (saver is StreamingCabFileSaver) {
+            saver.openStream(entry)
         }
         else {
-            null
+            // larger files cannot be held in memory anyway, but should fail in ByteArrayOutputStream and not here
+            ByteArrayOutputStream(Math.min(entry.size, Int.MAX_VALUE.toLong() - 8).toInt())
         }
     }
 
@@ -63,14 +98,22 @@ class FilteredCabStreamSaver(
     }
 
     /**
-     * @return amount successfully saved files
+     * Waits for files that are still being saved, when the saver saves them in the background.
+     */
+    @Throws(IOException::class)
+    override fun close() {
+        (saver as? Closeable)?.close()
+    }
+
+    /**
+     * @return amount successfully saved files (only final after [close], when the saver saves in the background)
      */
     val succeeded: Int
         get() = saver.succeeded
 
 
     /**
-     * @return amount of failed save attempts
+     * @return amount of failed save attempts (only final after [close], when the saver saves in the background)
      */
     val failed: Int
         get() = saver.failed
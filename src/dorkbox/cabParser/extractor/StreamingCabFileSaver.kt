@@ -0,0 +1,39 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.extractor
+
+import dorkbox.cabParser.structure.CabFileEntry
+import java.io.OutputStream
+
+/**
+ * [CabFileSaver] that takes the file content while it is being extracted, instead of as a whole [java.io.ByteArrayOutputStream]
+ * once it was extracted. [FilteredCabStreamSaver] uses this whenever its saver implements it.
+ */
+interface StreamingCabFileSaver : CabFileSaver {
+    /**
+     * @param cabFile [CabFileEntry], file about to be extracted
+     *
+     * @return where to write the file content, or `null` to skip the file
+     */
+    fun openStream(cabFile: CabFileEntry): OutputStream?
+
+    /**
+     * Called once the whole file content was written to [outputStream].
+     *
+     * @param cabFile [CabFileEntry], file that was extracted
+     */
+    fun closeStream(outputStream: OutputStream, cabFile: CabFileEntry)
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.extractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dorkbox.cabParser.structure.CabFileEntry;
+
+/**
+ * Hands extracted files to another {@link CabFileSaver} on a pool of writer
+ * threads, so creating, writing and closing files does not stall decoding.
+ * <p>
+ * At most {@code queueSize} files wait for a writer, and at most
+ * {@code maxBytes} of file content is held by the writers and the queue; once
+ * either is reached, {@link #save(ByteArrayOutputStream, CabFileEntry)} blocks
+ * until a writer catches up. A file larger than {@code maxBytes} is written
+ * on its own. The wrapped saver is called from several threads at once,
+ * so it must be thread-safe (the default savers are). {@link #close()} waits
+ * for every file to be written.
+ */
+public class WriteBehindCabFileSaver implements CabFileSaver, Closeable {
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger(0);
+
+    private final CabFileSaver saver;
+    private final ThreadPoolExecutor writers;
+
+    /** one permit per file being written, or waiting to be written */
+    private final Semaphore pending;
+
+    /** one permit per byte of the files being written, or waiting to be written */
+    private final Semaphore pendingBytes;
+    private final int maxBytes;
+
+    /** saves that failed by throwing, which the wrapped saver did not count */
+    private final AtomicInteger crashed = new AtomicInteger(0);
+
+    /**
+     * Creates {@link WriteBehindCabFileSaver} with 4 writer threads, and room
+     * for 256 waiting files of up to 64 MB all together.
+     * 
+     * @param saver
+     *            saves the files, on the writer threads
+     */
+    public WriteBehindCabFileSaver(CabFileSaver saver) {
+        this(saver, 4, 256);
+    }
+
+    /**
+     * Creates {@link WriteBehindCabFileSaver}, which holds up to 64 MB of files.
+     * 
+     * @param saver
+     *            saves the files, on the writer threads
+     * @param writerThreads
+     *            how many files are written at the same time
+     * @param queueSize
+     *            how many extracted files can wait for a writer before
+     *            extraction is held up
+     */
+    public WriteBehindCabFileSaver(CabFileSaver saver, int writerThreads, int queueSize) {
+        this(saver, writerThreads, queueSize, 64 * 1024 * 1024);
+    }
+
+    /**
+     * Creates {@link WriteBehindCabFileSaver}.
+     * 
+     * @param saver
+     *            saves the files, on the writer threads
+     * @param writerThreads
+     *            how many files are written at the same time
+     * @param queueSize
+     *            how many extracted files can wait for a writer before
+     *            extraction is held up
+     * @param maxBytes
+     *            how many bytes of extracted files can be written or wait for
+     *            a writer before extraction is held up
+     */
+    public WriteBehindCabFileSaver(CabFileSaver saver, int writerThreads, int queueSize, int maxBytes) {
+        if (writerThreads < 1 || queueSize < 0 || maxBytes < 1) {
+            throw new IllegalArgumentException("writerThreads and maxBytes must be at least 1, and queueSize cannot be negative");
+        }
+
+        this.saver = saver;
+        this.pending = new Semaphore(writerThreads + queueSize);
+        this.pendingBytes = new Semaphore(maxBytes);
+        this.maxBytes = maxBytes;
+
+        final String prefix = "CabWriter-" + POOL_NUMBER.incrementAndGet() + "-";
+        this.writers = new ThreadPoolExecutor(writerThreads, writerThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    @Override
+    public void save(final ByteArrayOutputStream fileContent, final CabFileEntry cabFile) {
+        // backpressure, when the writers fall behind
+        final int bytes = Math.min(fileContent.size(), this.maxBytes);
+        this.pending.acquireUninterruptibly();
+        this.pendingBytes.acquireUninterruptibly(bytes);
+
+        try {
+            this.writers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        saver.save(fileContent, cabFile);
+                    } catch (RuntimeException e) {
+                        crashed.incrementAndGet();
+                    } finally {
+                        pendingBytes.release(bytes);
+                        pending.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.pendingBytes.release(bytes);
+            this.pending.release();
+            throw new IllegalStateException("Cannot save " + cabFile + ", the writers were closed");
+        }
+    }
+
+    /**
+     * Waits until every file was written, and stops the writer threads.
+     */
+    @Override
+    public void close() throws InterruptedIOException {
+        this.writers.shutdown();
+
+        try {
+            while (!this.writers.awaitTermination(1, TimeUnit.SECONDS)) {
+                // still writing
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for extracted files to be written");
+        }
+    }
+
+    /**
+     * @return amount successfully saved files (only final after {@link #close()})
+     */
+    @Override
+    public int getSucceeded() {
+        return this.saver.getSucceeded();
+    }
+
+    /**
+     * @return amount of failed save attempts (only final after {@link #close()})
+     */
+    @Override
+    public int getFailed() {
+        return this.saver.getFailed() + this.crashed.get();
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2023 dorkbox, llc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dorkbox.cabParser.structure
+
+import dorkbox.cabParser.CabException
+import dorkbox.cabParser.CabSource
+import dorkbox.cabParser.CabStreamSaver
+import dorkbox.cabParser.CorruptCabException
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.util.*
+
+/**
+ * Compact, read-only directory of a cabinet, for keeping the directories of many cabinets in memory. The CFFOLDER and CFFILE
+ * tables are kept in primitive arrays, and the file names in two byte buffers: one with every directory path once, one with
+ * the names inside those directories.
+ *
+ * [CabFolderEntry] and [CabFileEntry] objects are only created by [folder] and [file], and the entries of [file] can be
+ * extracted with a [dorkbox.cabParser.CabParser] over the same cabinet.
+ */
+class CabDirectory private constructor(val header: CabHeader) {
+    companion object {
+        private val NO_RESERVE = object : CabStreamSaver {
+            override fun openOutputStream(entry: CabFileEntry): OutputStream? {
+                return null
+            }
+
+            override fun closeOutputStream(outputStream: OutputStream, entry: CabFileEntry) {
+            }
+
+            override fun saveReservedAreaData(data: ByteArray?, dataLength: Int): Boolean {
+                return false
+            }
+        }
+
+        /**
+         * Reads the directory of the cabinet, leaving [inputStream] before the CFDATA records.
+         */
+        @JvmStatic
+        @Throws(IOException::class, CabException::class)
+        fun read(inputStream: InputStream): CabDirectory {
+            val source = CabSource.of(inputStream)
+            val header = CabHeader(NO_RESERVE)
+            header.read(source)
+
+            val directory = CabDirectory(header)
+            directory.readFolders(header.readFolderTable(source))
+            directory.readFiles(header.readFileTable(source, directory.firstData()))
+            return directory
+        }
+    }
+
+    private var folderStart = IntArray(0)
+    private var folderBlocks = ShortArray(0)
+    private var folderCompression = ShortArray(0)
+
+    private var fileSize = IntArray(0)
+    private var fileOffset = IntArray(0)
+    private var fileFolder = ShortArray(0)
+    /** DOS date in the high 16 bits, DOS time in the low ones */
+    private var fileDateTime = IntArray(0)
+    private var fileAttribs = ShortArray(0)
+
+    /** directory of every file (up to and including the last backslash), an index into [pathStart] */
+    private var filePath = ShortArray(0)
+    private var pathStart = IntArray(0)
+    private var paths = ByteArray(0)
+
+    /** name of every file inside its directory, the one of file `i` ends where the one of file `i + 1` starts */
+    private var nameStart = IntArray(0)
+    private var names = ByteArray(0)
+
+    val folderCount: Int
+        get() = folderStart.size
+
+    val fileCount: Int
+        get() = fileSize.size
+
+    private fun readFolders(table: ByteBuffer) {
+        val count = header.cFolders
+        val entrySize = header.folderEntrySize
+
+        folderStart = IntArray(count)
+        folderBlocks = ShortArray(count)
+        folderCompression = ShortArray(count)
+        for (i in 0 until count) {
+            val position = i * entrySize
+            folderStart[i] = table.getInt(position)
+            folderBlocks[i] = table.getShort(position + 4)
+            folderCompression[i] = table.getShort(position + 6)
+        }
+    }
+
+    private fun firstData(): Long {
+        var firstData = Long.MAX_VALUE
+        for (i in 0 until folderCount) {
+            if (folderBlocks(i) > 0) {
+                firstData = Math.min(firstData, folderOffset(i))
+            }
+        }
+        return firstData
+    }
+
+    /**
+     * Same checks as [CabFileEntry.read], but the names are kept as they are in the cabinet, and only decoded by [fileName].
+     */
+    @Throws(CabException::class)
+    private fun readFiles(table: ByteBuffer) {
+        val count = header.cFiles
+        val limit = table.limit()
+
+        fileSize = IntArray(count)
+        fileOffset = IntArray(count)
+        fileFolder = ShortArray(count)
+        fileDateTime = IntArray(count)
+        fileAttribs = ShortArray(count)
+        filePath = ShortArray(count)
+        nameStart = IntArray(count + 1)
+
+        // the names can never be longer than the table
+        val names = ByteArray(limit)
+        var namesSize = 0
+        val paths = ByteArray(limit)
+        val pathStart = IntArray(count + 1)
+        var pathCount = 0
+        val pathIndex = HashMap<String, Int>()
+
+        var position = 0
+        for (i in 0 until count) {
+            if (position + 16 > limit) {
+                throw CorruptCabException("EOF reading cffile")
+            }
+
+            fileSize[i] = table.getInt(position)
+            fileOffset[i] = table.getInt(position + 4)
+            fileFolder[i] = table.getShort(position + 8)
+            fileDateTime[i] = (table.getShort(position + 10).toInt() shl 16) or (table.getShort(position + 12).toInt() and 0xFFFF)
+            fileAttribs[i] = table.getShort(position + 14)
+
+            val start = position + 16
+            val end = Math.min(start + 256, limit)
+            var stop = start
+            var slash = start - 1
+            while (stop < end) {
+                val b = table.get(stop).toInt()
+                if (b == 0) {
+                    break
+                }
+                if (b == '\\'.code) {
+                    slash = stop
+                }
+                stop++
+            }
+            if (stop == end) {
+                throw CorruptCabException(if (end < start + 256) "EOF reading cffile" else "cffile filename not null terminated")
+            }
+
+            // the directory, unless it is the same as the one of the previous file
+            val pathLength = slash + 1 - start
+            var path = if (pathCount > 0) filePath[i - 1].toInt() and 0xFFFF else -1
+            if (path < 0 || !samePath(table, start, pathLength, paths, pathStart[path], pathStart[path + 1])) {
+                val key = String(CharArray(pathLength) { (table.get(start + it).toInt() and 0xFF).toChar() })
+                path = pathIndex[key] ?: -1
+                if (path < 0) {
+                    path = pathCount++
+                    pathIndex[key] = path
+                    var offset = pathStart[path]
+                    for (j in start until slash + 1) {
+                        paths[offset++] = table.get(j)
+                    }
+                    pathStart[path + 1] = offset
+                }
+            }
+            filePath[i] = path.toShort()
+
+            nameStart[i] = namesSize
+            for (j in slash + 1 until stop) {
+                names[namesSize++] = table.get(j)
+            }
+
+            if (fileAttribs[i].toInt() and CabFileEntry.NAME_IS_UTF != 0) {
+                fileName(i, paths, pathStart, names, namesSize) ?: throw CorruptCabException("invalid name utf8 code")
+            }
+            position = stop + 1
+        }
+        nameStart[count] = namesSize
+
+        this.names = names.copyOf(namesSize)
+        this.paths = paths.copyOf(pathStart[pathCount])
+        this.pathStart = pathStart.copyOf(pathCount + 1)
+    }
+
+    private fun samePath(table: ByteBuffer, start: Int, length: Int, paths: ByteArray, pathStart: Int, pathEnd: Int): Boolean {
+        if (pathEnd - pathStart != length) {
+            return false
+        }
+        for (i in 0 until length) {
+            if (table.get(start + i) != paths[pathStart + i]) {
+                return false
+            }
+        }
+        return true
+    }
+
+    fun folderOffset(index: Int): Long {
+        return folderStart[index].toLong() and 0xFFFFFFFFL
+    }
+
+    fun folderBlocks(index: Int): Int {
+        return folderBlocks[index].toInt() and 0xFFFF
+    }
+
+    fun folderCompression(index: Int): Int {
+        return folderCompression[index].toInt() and 0xFFFF
+    }
+
+    fun fileSize(index: Int): Long {
+        return fileSize[index].toLong() and 0xFFFFFFFFL
+    }
+
+    /**
+     * @return uncompressed offset of the file in its folder
+     */
+    fun fileOffset(index: Int): Long {
+        return fileOffset[index].toLong() and 0xFFFFFFFFL
+    }
+
+    fun fileFolder(index: Int): Int {
+        return fileFolder[index].toInt() and 0xFFFF
+    }
+
+    fun fileAttribs(index: Int): Int {
+        return fileAttribs[index].toInt() and 0xFFFF
+    }
+
+    /**
+     * @return DOS date of the file, as in the CFFILE
+     */
+    fun fileDosDate(index: Int): Int {
+        return fileDateTime[index] ushr 16
+    }
+
+    /**
+     * @return DOS time of the file, as in the CFFILE
+     */
+    fun fileDosTime(index: Int): Int {
+        return fileDateTime[index] and 0xFFFF
+    }
+
+    /**
+     * @return seconds from 1970-01-01T00:00 to the local date and time of the file, the same as [CabFileEntry.localEpochSecond]
+     */
+    fun fileLocalEpochSecond(index: Int): Long {
+        return CabFileEntry.localEpochSecond(fileDosDate(index), fileDosTime(index))
+    }
+
+    /**
+     * Decodes the name of the file, with its directory, the same way as [CabFileEntry] does.
+     */
+    fun fileName(index: Int): String {
+        return fileName(index, paths, pathStart, names, nameStart[index + 1])!!
+    }
+
+    private fun fileName(index: Int, paths: ByteArray, pathStart: IntArray, names: ByteArray, nameEnd: Int): String? {
+        val path = filePath[index].toInt() and 0xFFFF
+        val pathLength = pathStart[path + 1] - pathStart[path]
+        val nameLength = nameEnd - nameStart[index]
+
+        val bytes = ByteArray(pathLength + nameLength + 1)
+        System.arraycopy(paths, pathStart[path], bytes, 0, pathLength)
+        System.arraycopy(names, nameStart[index], bytes, pathLength, nameLength)
+
+        return if (fileAttribs(index) and CabFileEntry.NAME_IS_UTF != 0) {
+            CabFileEntry.readUtfString(bytes, 0)
+        }
+        else {
+            String(bytes, 0, pathLength + nameLength, CabFileEntry.US_ASCII).trim { it <= ' ' }
+        }
+    }
+
+    /**
+     * @return a new entry for the folder
+     */
+    fun folder(index: Int): CabFolderEntry {
+        val entry = CabFolderEntry()
+        entry.coffCabStart = folderOffset(index)
+        entry.cCFData = folderBlocks(index)
+        entry.compressionMethod = folderCompression(index)
+        return entry
+    }
+
+    /**
+     * @return a new entry for the file
+     */
+    fun file(index: Int): CabFileEntry {
+        val entry = CabFileEntry()
+        entry.cbFile = fileSize(index)
+        entry.offFolderStart = fileOffset(index)
+        entry.iFolder = fileFolder(index)
+        entry.dosDate = fileDosDate(index)
+        entry.dosTime = fileDosTime(index)
+        entry.attribs = fileAttribs(index)
+        entry.name = fileName(index)
+        return entry
+    }
+}
@@ -20,7 +20,11 @@ import dorkbox.cabParser.CabException
 import dorkbox.cabParser.CorruptCabException
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
 import java.nio.charset.Charset
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.ZoneOffset
 import java.util.*
 
 class CabFileEntry {
@@ -33,8 +37,77 @@ class CabFileEntry {
     /** index into the CFFOLDER area , 2bytes  */
     var iFolder = 0
 
-    /** time/date stamp for this file , 2bytes  */
-    var date = Date()
+    /** DOS date stamp for this file , 2bytes  */
+    var dosDate = 0
+        set(value) {
+            field = value
+            hasDosDate = true
+            cachedDate = null
+            dateWasSet = false
+        }
+
+    /** DOS time stamp for this file , 2bytes  */
+    var dosTime = 0
+        set(value) {
+            field = value
+            hasDosDate = true
+            cachedDate = null
+            dateWasSet = false
+        }
+
+    private var hasDosDate = false
+    private var cachedDate: Date? = null
+
+    /** whether [cachedDate] was set, and not decoded from [dosDate] and [dosTime] */
+    private var dateWasSet = false
+
+    /**
+     * Time stamp of this file in the default time zone, decoded from [dosDate] and [dosTime] on first use. Entries that
+     * were not read from a cabinet have the time they were created.
+     *
+     * Setting it also sets [dosDate] and [dosTime], as close as they can get: DOS time stamps have 2 second steps and only
+     * go from 1980 to 2107. The date itself, [localDateTime] and [localEpochSecond] keep the exact time that was set.
+     */
+    var date: Date
+        get() {
+            var date = cachedDate
+            if (date == null) {
+                date = if (hasDosDate) getDate(dosDate, dosTime) else Date()
+                cachedDate = date
+            }
+            return date
+        }
+        set(value) {
+            var local = value.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime()
+            if (local.isBefore(DOS_MIN)) {
+                local = DOS_MIN
+            }
+            else if (local.isAfter(DOS_MAX)) {
+                local = DOS_MAX
+            }
+
+            dosDate = local.year - 1980 shl 9 or (local.monthValue shl 5) or local.dayOfMonth
+            dosTime = local.hour shl 11 or (local.minute shl 5) or (local.second shr 1)
+            cachedDate = value
+            dateWasSet = true
+        }
+
+    /**
+     * @return time stamp of this file as local date and time, which is how it is kept in the cabinet
+     */
+    val localDateTime: LocalDateTime
+        get() = if (hasDosDate && !dateWasSet) {
+            LocalDateTime.ofEpochSecond(localEpochSecond(dosDate, dosTime), 0, ZoneOffset.UTC)
+        }
+        else {
+            date.toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime()
+        }
+
+    /**
+     * @return seconds from 1970-01-01T00:00 to the local date and time of this file, with no time zone applied
+     */
+    val localEpochSecond: Long
+        get() = if (hasDosDate && !dateWasSet) localEpochSecond(dosDate, dosTime) else localDateTime.toEpochSecond(ZoneOffset.UTC)
 
     /** attribute flags for this file , 2bytes  */
     var attribs = 0
@@ -50,9 +123,8 @@ class CabFileEntry {
         cbFile = LittleEndian.UInt_.from(input).toLong()
         offFolderStart = LittleEndian.UInt_.from(input).toLong()
         iFolder = LittleEndian.UShort_.from(input).toInt()
-        val timeA: Int = LittleEndian.UShort_.from(input).toInt()
-        val timeB: Int = LittleEndian.UShort_.from(input).toInt()
-        date = getDate(timeA, timeB)
+        dosDate = LittleEndian.UShort_.from(input).toInt()
+        dosTime = LittleEndian.UShort_.from(input).toInt()
         attribs = LittleEndian.UShort_.from(input).toInt()
 
         var i = 0
@@ -72,13 +144,65 @@ class CabFileEntry {
             throw CorruptCabException("cffile filename not null terminated")
         }
         name = if (attribs and NAME_IS_UTF == NAME_IS_UTF) {
-            readUtfString(arrayOfByte) ?: throw CorruptCabException("invalid name utf8 code")
+            readUtfString(arrayOfByte, 0) ?: throw CorruptCabException("invalid name utf8 code")
         }
         else {
             String(arrayOfByte, 0, i, US_ASCII).trim { it <= ' ' }
         }
     }
 
+    /**
+     * Decodes the entry at [position] of the little-endian [buffer] (the CFFILE table read in one go), which ends at its limit.
+     *
+     * @return position of the next entry
+     */
+    @Throws(CabException::class)
+    fun read(buffer: ByteBuffer, position: Int): Int {
+        if (position + 16 > buffer.limit()) {
+            throw CorruptCabException("EOF reading cffile")
+        }
+
+        cbFile = buffer.getInt(position).toLong() and 0xFFFFFFFFL
+        offFolderStart = buffer.getInt(position + 4).toLong() and 0xFFFFFFFFL
+        iFolder = buffer.getShort(position + 8).toInt() and 0xFFFF
+        dosDate = buffer.getShort(position + 10).toInt() and 0xFFFF
+        dosTime = buffer.getShort(position + 12).toInt() and 0xFFFF
+        attribs = buffer.getShort(position + 14).toInt() and 0xFFFF
+
+        // same limit as reading from a stream: up to 255 characters and the terminating 0
+        val start = position + 16
+        val end = Math.min(start + 256, buffer.limit())
+        var i = start
+        while (i < end && buffer.get(i).toInt() != 0) {
+            i++
+        }
+        if (i == end) {
+            throw CorruptCabException(if (end < start + 256) "EOF reading cffile" else "cffile filename not null terminated")
+        }
+
+        val bytes: ByteArray
+        val offset: Int
+        if (buffer.hasArray()) {
+            bytes = buffer.array()
+            offset = buffer.arrayOffset() + start
+        }
+        else {
+            bytes = ByteArray(i - start + 1)
+            offset = 0
+            val view = buffer.duplicate()
+            view.position(start)
+            view.get(bytes, 0, i - start)
+        }
+
+        name = if (attribs and NAME_IS_UTF == NAME_IS_UTF) {
+            readUtfString(bytes, offset) ?: throw CorruptCabException("invalid name utf8 code")
+        }
+        else {
+            String(bytes, offset, i - start, US_ASCII).trim { it <= ' ' }
+        }
+        return i + 1
+    }
+
     var isReadOnly: Boolean
         get() = attribs and READONLY != 0
         set(bool) {
@@ -118,19 +242,9 @@ class CabFileEntry {
     var size: Long
         get() = cbFile
         set(size) {
-            cbFile = size.toInt().toLong()
+            cbFile = size
         }
 
-    private fun getDate(dateInfo: Int, timeInfo: Int): Date {
-        val i = dateInfo and 0x1F
-        val j = (dateInfo ushr 5) - 1 and 0xF
-        val k = (dateInfo ushr 9) + 80
-        val m = timeInfo and 0x1F shl 1
-        val n = timeInfo ushr 5 and 0x3F
-        val i1 = timeInfo ushr 11 and 0x1F
-        return Date(k, j, i, i1, n, m)
-    }
-
     override fun toString(): String {
         return name
     }
@@ -153,14 +267,60 @@ class CabFileEntry {
         /** szName[] contains UTF (in HEX)  */
         const val NAME_IS_UTF = 0x80
 
-        private fun readUtfString(stringBytes: ByteArray): String? {
-            var j = 0
+        /** first and last time stamp a DOS date and time can hold */
+        private val DOS_MIN = LocalDateTime.of(1980, 1, 1, 0, 0, 0)
+        private val DOS_MAX = LocalDateTime.of(2107, 12, 31, 23, 59, 58)
+
+        /**
+         * @param dateInfo DOS date of a CFFILE
+         * @param timeInfo DOS time of a CFFILE
+         */
+        internal fun getDate(dateInfo: Int, timeInfo: Int): Date {
+            val i = dateInfo and 0x1F
+            val j = (dateInfo ushr 5) - 1 and 0xF
+            val k = (dateInfo ushr 9) + 80
+            val m = timeInfo and 0x1F shl 1
+            val n = timeInfo ushr 5 and 0x3F
+            val i1 = timeInfo ushr 11 and 0x1F
+            return Date(k, j, i, i1, n, m)
+        }
+
+        /**
+         * Same as [getDate], out of range fields carry over the same way, but without a time zone and without allocating.
+         *
+         * @return seconds from 1970-01-01T00:00 to the DOS date and time
+         */
+        internal fun localEpochSecond(dateInfo: Int, timeInfo: Int): Long {
+            val month = (dateInfo ushr 5) - 1 and 0xF
+            val year = 1980 + (dateInfo ushr 9) + month / 12
+            val days = daysFromCivil(year, month % 12 + 1) + (dateInfo and 0x1F) - 1
+            val seconds = (timeInfo ushr 11 and 0x1F) * 3600 + (timeInfo ushr 5 and 0x3F) * 60 + (timeInfo and 0x1F shl 1)
+            return days * 86400L + seconds
+        }
+
+        /**
+         * @return days from 1970-01-01 to the first of the month, in the proleptic Gregorian calendar
+         */
+        private fun daysFromCivil(year: Int, month: Int): Long {
+            val y = if (month <= 2) year - 1 else year
+            val era = Math.floorDiv(y, 400)
+            val yearOfEra = y - era * 400
+            val dayOfYear = (153 * (if (month > 2) month - 3 else month + 9) + 2) / 5
+            val dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear
+            return era * 146097L + dayOfEra - 719468
+        }
+
+        /**
+         * @param start index of the first byte of the 0 terminated name in [stringBytes]
+         */
+        internal fun readUtfString(stringBytes: ByteArray, start: Int): String? {
+            var j = start
             var stringSize = 0
             var k = 0
 
             // count the size of the string
             stringSize = 0
-            while (stringBytes[stringSize].toInt() != 0) {
+            while (stringBytes[start + stringSize].toInt() != 0) {
                 stringSize++
             }
             val stringChars = CharArray(stringSize)
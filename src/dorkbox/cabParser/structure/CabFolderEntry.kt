@@ -18,6 +18,7 @@ package dorkbox.cabParser.structure
 import dorkbox.bytes.LittleEndian
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
 
 class CabFolderEntry : CabConstants {
     /** offset of the first CFDATA block in this folder, 4bytes  */
@@ -36,6 +37,15 @@ class CabFolderEntry : CabConstants {
         compressionMethod = LittleEndian.UShort_.from(input).toInt()
     }
 
+    /**
+     * Decodes the entry at [position] of the little-endian [buffer] (the CFFOLDER table read in one go).
+     */
+    fun read(buffer: ByteBuffer, position: Int) {
+        coffCabStart = buffer.getInt(position).toLong() and 0xFFFFFFFFL
+        cCFData = buffer.getShort(position + 4).toInt() and 0xFFFF
+        compressionMethod = buffer.getShort(position + 6).toInt() and 0xFFFF
+    }
+
     val compressionWindowSize: Int
         get() {
             if (compressionMethod == CabConstants.COMPRESSION_TYPE_NONE) {
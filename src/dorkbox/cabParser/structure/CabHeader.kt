@@ -15,13 +15,15 @@
  */
 package dorkbox.cabParser.structure
 
-import dorkbox.bytes.LittleEndian
 import dorkbox.cabParser.CabException
+import dorkbox.cabParser.CabSource
 import dorkbox.cabParser.CabStreamSaver
 import dorkbox.cabParser.CorruptCabException
 import java.io.EOFException
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
 
 class CabHeader
     (
@@ -71,40 +73,53 @@ class CabHeader
     /** (optional) size of per-datablock reserved area , 1 bytes  */
     var cbCFData = 0
 
+    /** size of every CFFOLDER entry, which is followed by its reserved area */
+    val folderEntrySize: Int
+        get() = 8 + cbCFFolder
+
     /** (optional) per-cabinet reserved area , 1*n bytes  */ //final short abReserve[];
     /** (optional) name of previous cabinet file , 1*n bytes  */ //final String szCabinetPrev;
     /** (optional) name of previous disk , 1*n bytes  */ //final String szDiskPrev;
 
+    /**
+     * Reads the fixed part of the header in one go (and the reserve sizes in a second one, when present), and decodes it from
+     * there.
+     */
     @Throws(IOException::class, CabException::class)
     fun read(input: InputStream) {
-        val i = input.read()
-        val j = input.read()
-        val k = input.read()
-        val m = input.read()
+        val bytes = ByteArray(40)
+        val buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN)
+        val count = read(input, bytes, 0, 36)
 
         // Contains the characters "M", "S", "C", and "F" (bytes 0x4D, 0x53, 0x43, 0x46). This field is used to ensure that the file is a cabinet (.cab) file.
-        if (i != 77 || j != 83 || k != 67 || m != 70) {
+        if (count < 4 || bytes[0].toInt() != 77 || bytes[1].toInt() != 83 || bytes[2].toInt() != 67 || bytes[3].toInt() != 70) {
             throw CorruptCabException("Missing header signature")
         }
-        reserved1 = LittleEndian.UInt_.from(input).toLong() // must be 0
-        cbCabinet = LittleEndian.UInt_.from(input).toLong() // Specifies the total size of the cabinet file, in bytes.
-        reserved2 = LittleEndian.UInt_.from(input).toLong() // must be 0
-        coffFiles = LittleEndian.UInt_.from(input).toLong() // Specifies the absolute file offset, in bytes, of the first CFFILE field entry.
-        reserved3 = LittleEndian.UInt_.from(input).toLong() // must be 0
+        if (count < 36) {
+            throw EOFException()
+        }
 
+        reserved1 = buffer.getInt(4).toLong() and 0xFFFFFFFFL // must be 0
+        cbCabinet = buffer.getInt(8).toLong() and 0xFFFFFFFFL // Specifies the total size of the cabinet file, in bytes.
+        reserved2 = buffer.getInt(12).toLong() and 0xFFFFFFFFL // must be 0
+        coffFiles = buffer.getInt(16).toLong() and 0xFFFFFFFFL // Specifies the absolute file offset, in bytes, of the first CFFILE field entry.
+        reserved3 = buffer.getInt(20).toLong() and 0xFFFFFFFFL // must be 0
 
         // Currently, versionMajor = 1 and versionMinor = 3
-        version = LittleEndian.UShort_.from(input).toInt()
-        cFolders = LittleEndian.UShort_.from(input).toInt()
-        cFiles = LittleEndian.UShort_.from(input).toInt()
-        flags = LittleEndian.UShort_.from(input).toInt()
-        setID = LittleEndian.UShort_.from(input).toInt()
-        iCabinet = LittleEndian.UShort_.from(input).toInt()
+        version = buffer.getShort(24).toInt() and 0xFFFF
+        cFolders = buffer.getShort(26).toInt() and 0xFFFF
+        cFiles = buffer.getShort(28).toInt() and 0xFFFF
+        flags = buffer.getShort(30).toInt() and 0xFFFF
+        setID = buffer.getShort(32).toInt() and 0xFFFF
+        iCabinet = buffer.getShort(34).toInt() and 0xFFFF
 
         if (flags and CabConstants.FLAG_RESERVE_PRESENT == CabConstants.FLAG_RESERVE_PRESENT) {
-            cbCFHeader = LittleEndian.UShort_.from(input).toInt()
-            cbCFFolder = input.read()
-            cbCFData = input.read()
+            if (read(input, bytes, 36, 4) < 4) {
+                throw EOFException()
+            }
+            cbCFHeader = buffer.getShort(36).toInt() and 0xFFFF
+            cbCFFolder = bytes[38].toInt() and 0xFF
+            cbCFData = bytes[39].toInt() and 0xFF
         }
 
         if (flags and CabConstants.FLAG_PREV_CABINET == CabConstants.FLAG_PREV_CABINET || flags and CabConstants.FLAG_NEXT_CABINET == CabConstants.FLAG_NEXT_CABINET) {
@@ -131,15 +146,8 @@ class CabHeader
         if (cbCFHeader != 0) {
             if (decoder.saveReservedAreaData(null, cbCFHeader) == true) {
                 val data = ByteArray(cbCFHeader)
-                if (cbCFHeader != 0) {
-                    var readTotal = 0
-                    while (readTotal < cbCFHeader) {
-                        val read = input.read(data, readTotal, cbCFHeader - readTotal)
-                        if (read < 0) {
-                            throw EOFException()
-                        }
-                        readTotal += read
-                    }
+                if (read(input, data, 0, cbCFHeader) < cbCFHeader) {
+                    throw EOFException()
                 }
                 decoder.saveReservedAreaData(data, cbCFHeader)
                 return
@@ -147,4 +155,70 @@ class CabHeader
             input.skip(cbCFHeader.toLong())
         }
     }
+
+    /**
+     * Reads the CFFOLDER table in one go. It follows the header, so [source] has to be where [read] left it.
+     *
+     * @return little-endian buffer with [cFolders] entries of [folderEntrySize] bytes
+     */
+    @Throws(IOException::class)
+    internal fun readFolderTable(source: CabSource): ByteBuffer {
+        val size = cFolders * folderEntrySize
+        val table = readTable(source, source.currentPosition, size)
+        if (table.limit() < size) {
+            throw EOFException()
+        }
+        return table
+    }
+
+    /**
+     * Reads the CFFILE table in one go. It normally runs up to the first CFDATA record at [firstData], and is never larger than
+     * every entry with the longest name. Reading no further than both keeps a stream on the data.
+     *
+     * @return little-endian buffer of the table, which is shorter at the end of the cabinet
+     */
+    @Throws(IOException::class)
+    internal fun readFileTable(source: CabSource, firstData: Long): ByteBuffer {
+        val tableEnd = if (firstData >= coffFiles) firstData else Long.MAX_VALUE
+        val size = Math.min(tableEnd - coffFiles, cFiles * (16 + 256L)).toInt()
+
+        source.seek(coffFiles)
+        return readTable(source, coffFiles, size)
+    }
+
+    companion object {
+        /**
+         * The next [size] bytes of [source], which start at [position], in one little-endian buffer. A view of the source when it
+         * can provide one, otherwise they are read in one go. Shorter at the end of the cabinet.
+         */
+        @Throws(IOException::class)
+        private fun readTable(source: CabSource, position: Long, size: Int): ByteBuffer {
+            val view = source.slice(position, size)
+            if (view != null) {
+                return view
+            }
+
+            val bytes = ByteArray(size)
+            val count = read(source, bytes, 0, size)
+            return ByteBuffer.wrap(bytes, 0, count).slice().order(ByteOrder.LITTLE_ENDIAN)
+        }
+
+        /**
+         * Reads up to [count] bytes, stopping early only at the end of [input].
+         *
+         * @return number of bytes read
+         */
+        @Throws(IOException::class)
+        internal fun read(input: InputStream, bytes: ByteArray, offset: Int, count: Int): Int {
+            var readTotal = 0
+            while (readTotal < count) {
+                val read = input.read(bytes, offset + readTotal, count - readTotal)
+                if (read < 0) {
+                    break
+                }
+                readTotal += read
+            }
+            return readTotal
+        }
+    }
 }
@@ -23,6 +23,7 @@ import dorkbox.cabParser.CorruptCabException
 import java.io.EOFException
 import java.io.IOException
 import java.io.InputStream
+import java.nio.ByteBuffer
 
 class CfDataRecord(private val sizeOfBlockData: Int) {
     /** checksum of this CFDATA entry , 4bytes  */
@@ -36,17 +37,49 @@ class CfDataRecord(private val sizeOfBlockData: Int) {
 
     @Throws(IOException::class, CabException::class)
     fun read(input: InputStream, bytes: ByteArray) {
-        csum = from(input) // safe to use signed here, since checksum also returns signed
-        cbData = LittleEndian.UShort_.from(input).toInt()
-        cbUncomp = LittleEndian.UShort_.from(input).toInt()
+        readHeader(input, bytes.size)
+        readData(input, bytes)
+    }
 
-        if (cbData > bytes.size) {
-            throw CorruptCabException("Corrupt cfData record")
-        }
-        if (sizeOfBlockData != 0) {
-            input.skip(sizeOfBlockData.toLong())
+    /**
+     * Reads the data of a record whose header was read by [readHeader], and checksums it while it is being read.
+     *
+     * @param view little-endian view of [bytes], starting at index 0
+     * @param verify `false` to only read the data
+     *
+     * @return `false` if the data was verified, and the checksum does not match
+     */
+    @Throws(IOException::class)
+    fun readData(input: InputStream, bytes: ByteArray, view: ByteBuffer, verify: Boolean): Boolean {
+        var words = 0L
+        var checked = 0
+
+        var readTotal = 0
+        while (readTotal < cbData) {
+            val read = input.read(bytes, readTotal, cbData - readTotal)
+            if (read < 0) {
+                throw EOFException()
+            }
+            readTotal += read
+
+            if (verify) {
+                // only whole 8-byte steps, the rest is folded in by the next read (or at the end)
+                val end = readTotal and 7.inv()
+                if (end > checked) {
+                    words = Checksum.update(words, view, checked, end - checked)
+                    checked = end
+                }
+            }
         }
 
+        return !verify || Checksum.finish(words, view, checked, cbData - checked, seed) == csum
+    }
+
+    /**
+     * Reads the data of a record whose header was read by [readHeader].
+     */
+    @Throws(IOException::class)
+    fun readData(input: InputStream, bytes: ByteArray) {
         var readTotal = 0
         while (readTotal < cbData) {
             val read = input.read(bytes, readTotal, cbData - readTotal)
@@ -57,16 +90,43 @@ class CfDataRecord(private val sizeOfBlockData: Int) {
         }
     }
 
+    /**
+     * Reads everything except the data itself, leaving [input] positioned on the first data byte.
+     *
+     * @param maxData largest acceptable cbData
+     */
+    @Throws(IOException::class, CabException::class)
+    fun readHeader(input: InputStream, maxData: Int) {
+        csum = from(input) // safe to use signed here, since checksum also returns signed
+        cbData = LittleEndian.UShort_.from(input).toInt()
+        cbUncomp = LittleEndian.UShort_.from(input).toInt()
+
+        if (cbData > maxData) {
+            throw CorruptCabException("Corrupt cfData record")
+        }
+        if (sizeOfBlockData != 0) {
+            input.skip(sizeOfBlockData.toLong())
+        }
+    }
+
+    /**
+     * checksum of cbData and cbUncomp, which is where the checksum of the data starts from
+     */
+    private val seed: Int
+        get() = cbData or (cbUncomp shl 16)
+
     private fun checksum(bytes: ByteArray): Int {
-        val arrayOfByte = ByteArray(4)
-        arrayOfByte[0] = (cbData and 0xFF).toByte()
-        arrayOfByte[1] = (cbData ushr 8 and 0xFF).toByte()
-        arrayOfByte[2] = (cbUncomp and 0xFF).toByte()
-        arrayOfByte[3] = (cbUncomp ushr 8 and 0xFF).toByte()
-        return Checksum.calculate(bytes, cbData, Checksum.calculate(arrayOfByte, 4, 0))
+        return Checksum.calculate(bytes, cbData, seed)
     }
 
     fun validateCheckSum(bytesToCheck: ByteArray): Boolean {
         return checksum(bytesToCheck) == csum
     }
+
+    /**
+     * @param bytesToCheck data of this record, starting at index 0
+     */
+    fun validateCheckSum(bytesToCheck: ByteBuffer): Boolean {
+        return Checksum.calculate(bytesToCheck, 0, cbData, seed) == csum
+    }
 }
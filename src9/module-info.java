@@ -3,6 +3,7 @@ module dorkbox.cabParser {
     exports dorkbox.cabParser.decompress;
     exports dorkbox.cabParser.decompress.lzx;
     exports dorkbox.cabParser.decompress.none;
+    exports dorkbox.cabParser.decompress.quantum;
     exports dorkbox.cabParser.decompress.zip;
     exports dorkbox.cabParser.extractor;
     exports dorkbox.cabParser.structure;